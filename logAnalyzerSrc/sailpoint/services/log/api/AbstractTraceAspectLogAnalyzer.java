@@ -1,5 +1,6 @@
 package sailpoint.services.log.api;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -22,18 +23,51 @@ import sailpoint.services.log.api.Log4jPatternConverter.Identifier;
  * <br>
  * Currently, only timing gathering is implemented.<br>
  * <br>
- * Leverages {@link Log4jPatternConverter} to parse the log event messages.
+ * Leverages {@link Log4jPatternConverter} to parse the log event messages.  Events added through
+ * {@link #addParsedEvent(String, ParsedLogEvent)} use the parse they're handed instead, and the method
+ * signature of an event is only parsed once however many times it's asked for.
  * @author trey.kirk
  *
  */
 public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
 
+    private static final long serialVersionUID = 1L;
+
     static Log _log = LogFactory.getLog(AbstractTraceAspectLogAnalyzer.class);
 
     private Map<String,Stack<String[]>> _threads;
     private int _propNameMaxLength = 10;
     private boolean _adjustDate;
 
+    /**
+     * A call in progress, for subclasses timing calls from their 'Entering' event to their 'Exiting' one.  See
+     * {@link AbstractTraceAspectLogAnalyzer#popCall(Stack, String)}.
+     */
+    protected static class TracedCall implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String _methodName;
+        private long _entered;
+
+        /**
+         * @param methodName The method called, without its parameters
+         * @param entered Time of the 'Entering' event
+         */
+        protected TracedCall(String methodName, long entered) {
+            _methodName = methodName;
+            _entered = entered;
+        }
+
+        public String getMethodName() {
+            return _methodName;
+        }
+
+        public long getEntered() {
+            return _entered;
+        }
+    }
+
     /**
      * Default thread name when one is not available
      */
@@ -42,6 +76,9 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
     // 12 hours in milliseconds form
     private static final int TWELVE_HOURS = 1000 * 60 * 60 * 12;
 
+    private static final Pattern ENTERING_PATTERN = Pattern.compile("^(Entering )([\\S]+)\\((.*)\\)[\\s\\n]*", Pattern.DOTALL);
+    private static final Pattern TRUNCATED_ENTERING_PATTERN = Pattern.compile("^(Entering )([\\S]+)\\((.*)", Pattern.DOTALL);
+
 
     /**
      * Default Log4j LayoutPattern
@@ -50,7 +87,15 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
 
     private Log4jPatternConverter _converter;
     private String _layoutPattern;
-    private String _message;
+    private transient ParsedLogEvent _event;
+    // handed in by addParsedEvent for the addLogEvent it calls
+    private transient ParsedLogEvent _parsedEvent;
+    // the method signature of _signatureEvent
+    private transient List<String> _methodSignature;
+    private transient ParsedLogEvent _signatureEvent;
+    // sequence of the current event and of the next one
+    private long _sequence = -1;
+    private long _nextSequence;
     /**
      * This attribute enables the behavior of 'correcting' date values.  Correction may need to occur when
      * the LayoutPattern is one that results in ambiguous time stamps.  That is, time stamps that don't specify
@@ -67,7 +112,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
      */
     public boolean autoCorrectDates = true;
 
-    private Date _lastDate;
+    private long _lastTime = CompiledDateParser.NO_DATE;
 
     private long _dateAdjustment = 0;
 
@@ -106,7 +151,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
     @Override
     public boolean addLogEvent(String logEvent) {
         // When the try fast flag is set and the event is greater than some threshold of characters,
-        // 	- truncate the message at the limit
+        // 	- the message ends at the limit
         // 	- for now, let's just ditch what's pruned
         //  - future: save the fatty parts and append to the message
 
@@ -116,9 +161,13 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
         // - addLogEvent would then process the added event, or the caller would have
         //   to make a separate call.
         _log.trace("Logging event: " + logEvent);
-        logEvent = trimmedMessage(logEvent);
-        _message = null;
-        _converter.setLogEvent(logEvent);
+        _sequence = _nextSequence++;
+        if (_parsedEvent != null) {
+            _event = _parsedEvent;
+            _parsedEvent = null;
+        } else {
+            _event = parse(_converter, logEvent);
+        }
 
         // AbstractTraceAspectLogAnalyzer is specifically useful because of the known
         // format of 'Entering' and 'Exiting' -- So building the call
@@ -169,31 +218,120 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
         // by default we always return true. Let ancestors overwrite and decide otherwise
         return true;
     }
+
+    /**
+     * Adds the event using the parse handed in.  Subclasses keep overriding {@link #addLogEvent(String)},
+     * which is called with the event and picks up the parse when it calls this class's implementation.
+     */
+    @Override
+    public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent) {
+        _parsedEvent = parsedEvent;
+        try {
+            return addLogEvent(logEvent);
+        } finally {
+            _parsedEvent = null;
+        }
+    }
+
+    /**
+     * Adds the event as the given sequence of the log, for analyzers that are handed only some of the events.
+     * See {@link ShardableAnalyzer#addParsedEvent(long, String, ParsedLogEvent)}.
+     * @param sequence
+     * @param logEvent
+     * @param parsedEvent
+     * @return
+     */
+    public boolean addParsedEvent(long sequence, String logEvent, ParsedLogEvent parsedEvent) {
+        _nextSequence = sequence;
+        return addParsedEvent(logEvent, parsedEvent);
+    }
+
+    /**
+     * Returns the position of the current event among all events of the log, counting from 0.  Unless the
+     * analyzer is a shard being handed some of the events, that's the number of events added before it.
+     * @return
+     */
+    protected long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * Returns the layout pattern events are parsed with
+     * @return
+     */
+    protected String getLayoutPattern() {
+        return _layoutPattern;
+    }
+
+    /**
+     * Configures a new shard of this analyzer the way this one is, see {@link ShardableAnalyzer#newShard()}
+     * @param shard
+     * @return The shard
+     */
+    protected <T extends AbstractTraceAspectLogAnalyzer> T configureShard(T shard) {
+        shard.autoCorrectDates = autoCorrectDates;
+        return shard;
+    }
+
+    /**
+     * Takes on the call stacks of a shard, whose threads are not among this analyzer's.  Subclasses merging
+     * shards call this for each of them.
+     * @param shard
+     */
+    protected void mergeShard(AbstractTraceAspectLogAnalyzer shard) {
+        _threads.putAll(shard._threads);
+        _nextSequence = Math.max(_nextSequence, shard._nextSequence);
+    }
+
+    /**
+     * Takes on the state of a partial that analyzed the partition following this analyzer's, as though this one
+     * had gone on to read it, see {@link MergeableAnalyzer}.  Subclasses merging partials call this first and
+     * add what they keep of the partial's events after their own.
+     * @param partial
+     * @return The sequence the partial's events take on, following this analyzer's events
+     * @throws IllegalArgumentException When the partial is of another kind or parses another layout
+     */
+    protected long mergePartial(AbstractTraceAspectLogAnalyzer partial) {
+        checkPartial(partial);
+        if (!_layoutPattern.equals(partial._layoutPattern)) {
+            throw new IllegalArgumentException("Can't merge a partial parsing " + partial._layoutPattern + " into one parsing " + _layoutPattern);
+        }
+        _threads = partial._threads;
+        _lastTime = partial._lastTime;
+        _dateAdjustment = partial._dateAdjustment;
+        long first = _nextSequence;
+        _nextSequence += partial._nextSequence;
+        return first;
+    }
     
     public void setAdjustDate(boolean adjustDate) {
         autoCorrectDates = adjustDate;
     }
 
+    /**
+     * Returns the current log event along with its parsed tokens
+     * @return
+     */
+    protected ParsedLogEvent getParsedEvent() {
+        return _event;
+    }
+
     /**
      * Extracts the 'Message' token of the log event
      * @return
      */
     protected String parseMsg() {
         /*
-         * Despite our method name, we don't really parse this value for each call
-         * like we do all other tokens.  Instead, the message is parsed one time
-         * per logEvent and then cached.  logEvent will reset our field to ensure
-         * we parse it when we need to.
+         * The message token is a view of the log event that only becomes a String when asked
+         * for, and then the same String is returned for every call for this logEvent.
          */
-        if (_message == null) {
-            _message = _converter.parseToken(Log4jPatternConverter.Identifier.MESSAGE);
-        }
-        _log.trace("parseMsg: " + _message);
-        return _message;
+        String message = _event.getTokenString(Log4jPatternConverter.Identifier.MESSAGE.getIdentifier());
+        _log.trace("parseMsg: " + message);
+        return message;
     }
 
     public String getPriority() {
-        String priority = _converter.parseToken(Identifier.PRIORITY);
+        String priority = _event.getTokenString(Identifier.PRIORITY.getIdentifier());
         _log.trace("priority: " + priority);
         return priority;
     }
@@ -205,7 +343,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
     public boolean isEntering() {
         // TODO: This is based on SailPoint's trace injection class.  Why not abstract this
         // string to expand its uses
-        String message = parseMsg();
+        ParsedLogEvent.Token message = _event.getToken(Identifier.MESSAGE);
         if (message != null && message.startsWith("Entering ")) {
             _log.trace("isEntering: true");
             return true;
@@ -222,7 +360,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
     public boolean isExiting () {
         // TODO: This is based on SailPoint's trace injection class.  Why not abstract this
         // string to expand its uses
-        String message = parseMsg();
+        ParsedLogEvent.Token message = _event.getToken(Identifier.MESSAGE);
         if (message != null && message.startsWith("Exiting ")) {
             _log.trace("isExiting: true");
             return true;
@@ -241,9 +379,18 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
      * 1 - The method name<br>
      * each following odd element - parameter name<br>
      * each subsequent following even element - the parameter's value<br>
+     * The signature is parsed once per event, every call for the same event returns the same List.
      * @return
      */
     public List<String> getMethodSignature() {
+        if (_signatureEvent != _event) {
+            _methodSignature = parseMethodSignature();
+            _signatureEvent = _event;
+        }
+        return _methodSignature;
+    }
+
+    private List<String> parseMethodSignature() {
         _log.trace("Entering getMethodSignature");
         List<String> methodSignature = new ArrayList<String>();
 
@@ -267,8 +414,9 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
         methodSignature.add(className);
 
         if (isEntering()) {
-            // Parse the entering message to pull out the parameter information
-            Pattern p = Pattern.compile("^(Entering )([\\S]+)\\((.*)\\)[\\s\\n]*", Pattern.DOTALL);
+            // Parse the entering message to pull out the parameter information.  A message cut short by fast
+            // parsing is missing its closing parenthesis, the signature then runs to the end.
+            Pattern p = _event.isTruncated() ? TRUNCATED_ENTERING_PATTERN : ENTERING_PATTERN;
             _log.trace("Method matching pattern: " + p);
             // the message may have newlines.  the DOTALL flag helps us with that
             Matcher m = p.matcher(message);
@@ -319,7 +467,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
         }
         _log.trace("methodSignature: " + methodSignature);
         if (methodSignature.size() < 2) {
-            _log.error("Method signature not two elements: " + _converter.getLogEvent());
+            _log.error("Method signature not two elements: " + _event);
         }
         return methodSignature;
     }
@@ -427,7 +575,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
      * @return
      */
     public String getThread() {
-        String thread = _converter.parseToken(Log4jPatternConverter.Identifier.THREAD);
+        String thread = _event.getTokenString(Log4jPatternConverter.Identifier.THREAD.getIdentifier());
         if (thread == null) {
             thread  = DEFAULT_THREAD_NAME;
         }
@@ -442,7 +590,7 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
      * @return
      */
     public String parseCategory () {
-        String className = _converter.parseToken(Log4jPatternConverter.Identifier.CATEGORY);
+        String className = _event.getTokenString(Log4jPatternConverter.Identifier.CATEGORY.getIdentifier());
         _log.trace("parseCategory: " + className);
         return className;
     }
@@ -451,35 +599,45 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
      * Extracts the Date based off of the SimpleDatePattern interpreted by the LayoutPattern.  If {@link AbstractTraceAspectLogAnalyzer#autoCorrectDates}
      * is enabled, ambiguous time stamps will be adjusted as the logfile is scanned.
      * @return
-     * @see Log4jPatternConverter#parseDate(String)
+     * @see #getTime()
      */
     public Date getDate() {
-        _log.trace("Entering getDate");
-        Date current = _converter.parseDate();
-        if (current != null) {
+        long time = getTime();
+        return time == CompiledDateParser.NO_DATE ? null : new Date(time);
+    }
+
+    /**
+     * Same as {@link #getDate()}, but returns the epoch milliseconds without creating a Date
+     * @return The time or {@link CompiledDateParser#NO_DATE}
+     * @see ParsedLogEvent#getTime()
+     */
+    public long getTime() {
+        _log.trace("Entering getTime");
+        long current = _event.getTime();
+        if (current != CompiledDateParser.NO_DATE) {
             // previous adjustments need to persist
-            current.setTime(current.getTime() + _dateAdjustment);
-            if (autoCorrectDates && _lastDate != null) {
+            current += _dateAdjustment;
+            if (autoCorrectDates && _lastTime != CompiledDateParser.NO_DATE) {
                 // make a new adjustment
-                if (current.before(_lastDate)) {
-                    current.setTime(current.getTime() + TWELVE_HOURS);
+                if (current < _lastTime) {
+                    current += TWELVE_HOURS;
                     _dateAdjustment += TWELVE_HOURS;
                 }
                 // one more time
-                if (current.before(_lastDate)) {
-                    current.setTime(current.getTime() + TWELVE_HOURS);
+                if (current < _lastTime) {
+                    current += TWELVE_HOURS;
                     _dateAdjustment += TWELVE_HOURS;
-                }	
+                }
             }
             // warning: adjustments didn't fly
-            if (_lastDate != null && current.before(_lastDate)) {
+            if (_lastTime != CompiledDateParser.NO_DATE && current < _lastTime) {
                 // TODO: Incorporate better logging
-                System.err.println("Current date: " + current + " is before last: " + _lastDate);
-                System.err.println("From event: " + _converter.getLogEvent());
+                System.err.println("Current date: " + new Date(current) + " is before last: " + new Date(_lastTime));
+                System.err.println("From event: " + _event);
             }
-            _lastDate = current;
+            _lastTime = current;
         }
-        _log.trace("getDate: " + current);
+        _log.trace("getTime: " + current);
         return current;
     }
 
@@ -528,6 +686,40 @@ public abstract class AbstractTraceAspectLogAnalyzer extends FastLogAnalyzer {
         return priority != null && Log4jPatternConverter.PRIORITY_ERROR.startsWith(priority);
     }
 
+    /**
+     * Returns the method without its parameters, as 'Exiting' events don't name them
+     * @param method As returned by {@link #getMethod()}
+     * @return
+     */
+    protected static String getMethodName(String method) {
+        int paren = method.indexOf('(');
+        return paren < 0 ? method : method.substring(0, paren);
+    }
+
+    /**
+     * Pops a thread's calls down to the latest call of the method and returns it.  The calls above it are
+     * dropped, as when an exception unwinds them.
+     * @param calls The thread's calls in progress, may be null
+     * @param methodName The method exiting, without its parameters
+     * @return The call, or null when the method isn't on the stack, which is then left as is
+     */
+    protected static <T extends TracedCall> T popCall(Stack<T> calls, String methodName) {
+        if (calls == null) {
+            return null;
+        }
+        int depth = calls.size() - 1;
+        while (depth >= 0 && !calls.get(depth).getMethodName().equals(methodName)) {
+            depth--;
+        }
+        if (depth < 0) {
+            return null;
+        }
+        while (calls.size() > depth + 1) {
+            calls.pop();
+        }
+        return calls.pop();
+    }
+
     protected Stack<String[]> getCallStack (String forThread) {
         Stack<String[]> callStack = null;
         Stack<String[]> current = _threads.get(forThread);
@@ -0,0 +1,184 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calls aggregated by call path: every distinct chain of methods leading to a call is a node, counting its calls
+ * along with their inclusive time (the whole call) and exclusive time (the call less the calls it made).<br>
+ * <br>
+ * Nodes are numbered, node 0 being the root every top level call hangs from, and kept in parallel arrays rather
+ * than as objects.  Methods are interned to an id, so a node costs a few dozen bytes however long its method name
+ * and however many times it's called.  A node's children are linked from the first through their next sibling.
+ * @author trey.kirk
+ *
+ */
+public class CallTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The node top level calls are children of
+     */
+    public static final int ROOT = 0;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private List<String> _methods;
+    private Map<String, Integer> _methodIds;
+
+    private int _size;
+    private int[] _nodeMethods;
+    private int[] _parents;
+    private int[] _firstChildren;
+    private int[] _nextSiblings;
+    private long[] _calls;
+    private long[] _inclusive;
+    private long[] _exclusive;
+
+    public CallTree() {
+        _methods = new ArrayList<String>();
+        _methodIds = new HashMap<String, Integer>();
+        _nodeMethods = new int[INITIAL_CAPACITY];
+        _parents = new int[INITIAL_CAPACITY];
+        _firstChildren = new int[INITIAL_CAPACITY];
+        _nextSiblings = new int[INITIAL_CAPACITY];
+        _calls = new long[INITIAL_CAPACITY];
+        _inclusive = new long[INITIAL_CAPACITY];
+        _exclusive = new long[INITIAL_CAPACITY];
+        // the root
+        newNode(-1, -1);
+    }
+
+    /**
+     * Returns the node for a call of the method made from the parent node, added if there's none yet
+     * @param parent
+     * @param method
+     * @return
+     */
+    public int getChild(int parent, String method) {
+        Integer methodId = _methodIds.get(method);
+        if (methodId == null) {
+            methodId = _methods.size();
+            _methods.add(method);
+            _methodIds.put(method, methodId);
+        }
+        return getChild(parent, methodId.intValue());
+    }
+
+    private int getChild(int parent, int methodId) {
+        for (int child = _firstChildren[parent]; child >= 0; child = _nextSiblings[child]) {
+            if (_nodeMethods[child] == methodId) {
+                return child;
+            }
+        }
+        int child = newNode(parent, methodId);
+        _nextSiblings[child] = _firstChildren[parent];
+        _firstChildren[parent] = child;
+        return child;
+    }
+
+    private int newNode(int parent, int methodId) {
+        if (_size == _nodeMethods.length) {
+            int capacity = _size * 2;
+            _nodeMethods = Arrays.copyOf(_nodeMethods, capacity);
+            _parents = Arrays.copyOf(_parents, capacity);
+            _firstChildren = Arrays.copyOf(_firstChildren, capacity);
+            _nextSiblings = Arrays.copyOf(_nextSiblings, capacity);
+            _calls = Arrays.copyOf(_calls, capacity);
+            _inclusive = Arrays.copyOf(_inclusive, capacity);
+            _exclusive = Arrays.copyOf(_exclusive, capacity);
+        }
+        int node = _size++;
+        _nodeMethods[node] = methodId;
+        _parents[node] = parent;
+        _firstChildren[node] = -1;
+        _nextSiblings[node] = -1;
+        return node;
+    }
+
+    /**
+     * Counts a call of the node
+     * @param node
+     * @param inclusive Duration of the call
+     * @param exclusive Duration of the call less that of the calls it made
+     */
+    public void addCall(int node, long inclusive, long exclusive) {
+        _calls[node]++;
+        _inclusive[node] += inclusive;
+        _exclusive[node] += exclusive;
+    }
+
+    /**
+     * Adds the calls of the other tree to this one's, by call path
+     * @param other
+     * @return The node of this tree each node of the other tree was added to, indexed by the other's node
+     */
+    public int[] add(CallTree other) {
+        int[] nodes = new int[other._size];
+        nodes[ROOT] = ROOT;
+        // parents are always numbered before their children
+        for (int node = 1; node < other._size; node++) {
+            int added = getChild(nodes[other._parents[node]], other._methods.get(other._nodeMethods[node]));
+            _calls[added] += other._calls[node];
+            _inclusive[added] += other._inclusive[node];
+            _exclusive[added] += other._exclusive[node];
+            nodes[node] = added;
+        }
+        return nodes;
+    }
+
+    /**
+     * Returns the number of nodes, the root included
+     * @return
+     */
+    public int size() {
+        return _size;
+    }
+
+    public String getMethod(int node) {
+        return node == ROOT ? null : _methods.get(_nodeMethods[node]);
+    }
+
+    public long getCalls(int node) {
+        return _calls[node];
+    }
+
+    public long getInclusive(int node) {
+        return _inclusive[node];
+    }
+
+    public long getExclusive(int node) {
+        return _exclusive[node];
+    }
+
+    /**
+     * Returns the children of the node, the most time consuming first and otherwise by method
+     * @param node
+     * @return
+     */
+    public List<Integer> getChildren(int node) {
+        List<Integer> children = new ArrayList<Integer>();
+        for (int child = _firstChildren[node]; child >= 0; child = _nextSiblings[child]) {
+            children.add(child);
+        }
+        Collections.sort(children, new Comparator<Integer>() {
+            public int compare(Integer n1, Integer n2) {
+                long i1 = _inclusive[n1];
+                long i2 = _inclusive[n2];
+                if (i1 != i2) {
+                    return i1 > i2 ? -1 : 1;
+                }
+                return getMethod(n1).compareTo(getMethod(n2));
+            }
+        });
+        return children;
+    }
+
+}
@@ -0,0 +1,196 @@
+package sailpoint.services.log.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.biliruben.util.csv.CSVRecord;
+import com.biliruben.util.csv.CSVUtil;
+
+/**
+ * Aggregates the method calls traced by 'Entering' and 'Exiting' events into a {@link CallTree}, keyed by the path
+ * of calls leading to each one, across all threads.  Where {@link LogTimer} only reports the whole time spent in
+ * each method, the tree also reports the time spent in the method itself, less the calls it made, which shows
+ * whether a slow method is slow on its own or because of what it calls.<br>
+ * <br>
+ * The summary is a CSV listing the tree depth first, the most time consuming calls first.  Calls still open when
+ * the log ends aren't counted, nor calls whose 'Entering' or 'Exiting' event has no date.  An 'Exiting' event
+ * for a method that isn't on the thread's stack is ignored; one for a method further down the stack ends the
+ * calls above it without counting them, as when an exception unwinds them.
+ * @author trey.kirk
+ *
+ */
+public class CallTreeAnalyzer extends AbstractTraceAspectLogAnalyzer implements ShardableAnalyzer, MergeableAnalyzer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Log _log = LogFactory.getLog(CallTreeAnalyzer.class);
+
+    private static final String HEADER_DEPTH = "depth";
+    private static final String HEADER_METHOD = "method";
+    private static final String HEADER_CALLS = "calls";
+    private static final String HEADER_INCLUSIVE = "inclusive";
+    private static final String HEADER_EXCLUSIVE = "exclusive";
+    private static final String HEADER_AVERAGE = "average";
+
+    /*
+     * A call in progress
+     */
+    private static class Frame extends TracedCall {
+
+        private static final long serialVersionUID = 2L;
+
+        private int _node;
+        // time spent in the calls it made
+        private long _called;
+
+        private Frame(int node, String methodName, long entered) {
+            super(methodName, entered);
+            _node = node;
+        }
+    }
+
+    private CallTree _tree;
+    // calls in progress of each thread
+    private Map<String, Stack<Frame>> _stacks;
+
+    public CallTreeAnalyzer(String layoutPattern) {
+        super(layoutPattern);
+        _tree = new CallTree();
+        _stacks = new HashMap<String, Stack<Frame>>();
+    }
+
+    public CallTreeAnalyzer newShard() {
+        return configureShard(new CallTreeAnalyzer(getLayoutPattern()));
+    }
+
+    @Override
+    public boolean addLogEvent(String logEvent) {
+        super.addLogEvent(logEvent);
+        boolean entering = isEntering();
+        if (!entering && !isExiting()) {
+            return true;
+        }
+        String method = getMethod();
+        String thread = getThread();
+        long time = getTime();
+        Stack<Frame> frames = _stacks.get(thread);
+        if (entering) {
+            if (frames == null) {
+                frames = new Stack<Frame>();
+                _stacks.put(thread, frames);
+            }
+            int parent = frames.isEmpty() ? CallTree.ROOT : frames.peek()._node;
+            frames.push(new Frame(_tree.getChild(parent, method), getMethodName(method), time));
+            return true;
+        }
+        Frame frame = popCall(frames, getMethodName(method));
+        if (frame == null) {
+            _log.debug("Ignoring (Exiting a call not on the stack): " + method);
+            return true;
+        }
+        if (time == CompiledDateParser.NO_DATE || frame.getEntered() == CompiledDateParser.NO_DATE) {
+            // can't be timed
+            _log.debug("Ignoring (Call without a date): " + method);
+            return true;
+        }
+        long duration = time - frame.getEntered();
+        _tree.addCall(frame._node, duration, duration - frame._called);
+        if (!frames.isEmpty()) {
+            frames.peek()._called += duration;
+        }
+        return true;
+    }
+
+    /*
+     * Adds the other tree to this one, and takes on the calls in progress of its threads
+     */
+    private void addTree(CallTreeAnalyzer other) {
+        int[] nodes = _tree.add(other._tree);
+        for (Map.Entry<String, Stack<Frame>> entry : other._stacks.entrySet()) {
+            for (Frame frame : entry.getValue()) {
+                frame._node = nodes[frame._node];
+            }
+            _stacks.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Adds the trees of the shards to this one
+     */
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        for (ShardableAnalyzer shard : shards) {
+            CallTreeAnalyzer tree = (CallTreeAnalyzer)shard;
+            mergeShard(tree);
+            addTree(tree);
+        }
+    }
+
+    /**
+     * Adds the partial's tree to this one.  The calls in progress when this analyzer's partition ended are dropped
+     * in favor of the partial's, as the partial couldn't tell where the calls it ended were made from.
+     */
+    public void merge(MergeableAnalyzer partial) {
+        CallTreeAnalyzer tree = checkPartial(partial);
+        mergePartial(tree);
+        _stacks = new HashMap<String, Stack<Frame>>();
+        addTree(tree);
+    }
+
+    /**
+     * Returns the tree of the calls counted so far
+     * @return
+     */
+    public CallTree getCallTree() {
+        return _tree;
+    }
+
+    @Override
+    public String compileSummary() {
+        String[] headers = {
+                HEADER_DEPTH, HEADER_METHOD, HEADER_CALLS, HEADER_INCLUSIVE, HEADER_EXCLUSIVE, HEADER_AVERAGE
+        };
+        CSVRecord record = new CSVRecord(headers);
+        Stack<int[]> pending = new Stack<int[]>();
+        pushChildren(pending, CallTree.ROOT, 0);
+        while (!pending.isEmpty()) {
+            int[] next = pending.pop();
+            int node = next[0];
+            Map<String, String> line = new HashMap<String, String>();
+            line.put(HEADER_DEPTH, String.valueOf(next[1]));
+            line.put(HEADER_METHOD, _tree.getMethod(node));
+            line.put(HEADER_CALLS, String.valueOf(_tree.getCalls(node)));
+            line.put(HEADER_INCLUSIVE, String.valueOf(_tree.getInclusive(node)));
+            line.put(HEADER_EXCLUSIVE, String.valueOf(_tree.getExclusive(node)));
+            line.put(HEADER_AVERAGE, String.valueOf(_tree.getCalls(node) == 0 ? 0 : _tree.getInclusive(node) / _tree.getCalls(node)));
+            record.addLine(line);
+            pushChildren(pending, node, next[1] + 1);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            CSVUtil.exportToCsv(record, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return out.toString();
+    }
+
+    /*
+     * Pushes the children so the first of them is popped first
+     */
+    private void pushChildren(Stack<int[]> pending, int node, int depth) {
+        List<Integer> children = _tree.getChildren(node);
+        for (int i = children.size() - 1; i >= 0; i--) {
+            pending.push(new int[] {children.get(i), depth});
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+package sailpoint.services.log.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A snapshot of an analysis in progress: how far each log file has been read and the state of every analyzer
+ * at that point.  A later run over the same files resumes from the snapshot and reads only what's been written
+ * since, see {@link MultiFileLog4jLineIterator#MultiFileLog4jLineIterator(String[], String, Checkpoint)}.<br>
+ * <br>
+ * Files are recognized by their file key (the inode, on platforms that have one) and a hash of the first line of
+ * their first event.  A log renamed by rollover is still recognized and a new log reusing the name is read from
+ * its beginning.  A file that no longer holds as many bytes as were read is also read from its beginning.<br>
+ * <br>
+ * Analyzers are saved with Java serialization, so a checkpoint can only be resumed by the same analyzers.
+ * @author trey.kirk
+ *
+ */
+public class Checkpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Log _log = LogFactory.getLog(Checkpoint.class);
+
+    /**
+     * How far a file has been read
+     */
+    public static class FileState implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String _path;
+        private String _fileKey;
+        private long _firstEventHash;
+        private long _offset;
+
+        private FileState(String path, String fileKey, long firstEventHash) {
+            _path = path;
+            _fileKey = fileKey;
+            _firstEventHash = firstEventHash;
+        }
+
+        /**
+         * Returns the file's path when it was read
+         * @return
+         */
+        public String getPath() {
+            return _path;
+        }
+
+        /**
+         * Returns the file's key, null on platforms without one
+         * @return
+         */
+        public String getFileKey() {
+            return _fileKey;
+        }
+
+        /**
+         * Returns the hash of the first line of the file's first event, 0 if it had none
+         * @return
+         */
+        public long getFirstEventHash() {
+            return _firstEventHash;
+        }
+
+        /**
+         * Returns the offset of the first byte not yet analyzed
+         * @return
+         */
+        public long getOffset() {
+            return _offset;
+        }
+
+        @Override
+        public String toString() {
+            return _path + "[" + _fileKey + ", " + _firstEventHash + "]@" + _offset;
+        }
+    }
+
+    private Map<String, FileState> _files;
+    private List<LogAnalyzer> _analyzers;
+    private Date _saved;
+
+    // the state last updated, events come a file at a time
+    private transient File _lastFile;
+    private transient FileState _lastState;
+
+    /**
+     * Creates an empty checkpoint, every file is read from its beginning
+     */
+    public Checkpoint() {
+        _files = new LinkedHashMap<String, FileState>();
+        _analyzers = new ArrayList<LogAnalyzer>();
+    }
+
+    /**
+     * Loads a saved checkpoint
+     * @param file
+     * @return The checkpoint, or null when the file doesn't exist
+     * @throws IOException When the file can't be read, or was saved by different analyzers
+     */
+    public static Checkpoint load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            Checkpoint checkpoint = (Checkpoint)in.readObject();
+            _log.debug("Loaded checkpoint saved " + checkpoint._saved + ": " + checkpoint._files.values());
+            return checkpoint;
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Not a checkpoint: " + file, e);
+        } catch (ClassCastException e) {
+            throw new IOException("Not a checkpoint: " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves the checkpoint.  It's written to a temporary file first and moved over the last checkpoint in one
+     * step, so an interrupted save leaves the last checkpoint in place.  Where the file system can't move
+     * atomically, the last checkpoint is replaced without that guarantee.
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException {
+        _saved = new Date();
+        File temp = new File(file.getPath() + ".tmp");
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeObject(this);
+        } finally {
+            out.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            _log.debug("Atomic move not supported, replacing " + file + ": " + e.getMessage());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        _log.debug("Saved checkpoint: " + _files.values());
+    }
+
+    /**
+     * Prepares to read the files: returns the offset each should be read from and forgets files
+     * that are no longer read.
+     * @param files
+     * @param converter Finds the first event of each file
+     * @return
+     * @throws IOException
+     */
+    public Map<File, Long> resume(List<File> files, Log4jPatternConverter converter) throws IOException {
+        Map<String, FileState> byKey = new HashMap<String, FileState>();
+        for (FileState state : _files.values()) {
+            if (state._fileKey != null) {
+                byKey.put(state._fileKey, state);
+            }
+        }
+        Map<String, FileState> previous = _files;
+        _files = new LinkedHashMap<String, FileState>();
+        _lastFile = null;
+        _lastState = null;
+        Map<File, Long> offsets = new HashMap<File, Long>();
+        for (File file : files) {
+            String fileKey = getFileKey(file);
+            FileState state = new FileState(file.getPath(), fileKey, hashFirstEvent(file, converter));
+            // a renamed log is found by its key, the name only counts where there are no keys
+            FileState last = fileKey != null ? byKey.get(fileKey) : previous.get(file.getPath());
+            if (last != null && last._firstEventHash == state._firstEventHash && last._offset <= file.length()) {
+                state._offset = last._offset;
+            } else if (last != null) {
+                _log.info(file + " has changed since " + last + ", reading it from the beginning");
+            }
+            _log.debug("Resuming: " + state);
+            _files.put(state._path, state);
+            offsets.put(file, state._offset);
+        }
+        return offsets;
+    }
+
+    /**
+     * Records the offset of the first byte of the file not yet analyzed
+     * @param file
+     * @param offset
+     */
+    public void setOffset(File file, long offset) {
+        if (file != _lastFile) {
+            _lastState = _files.get(file.getPath());
+            if (_lastState == null) {
+                throw new IllegalArgumentException(file + " was not resumed from this checkpoint");
+            }
+            _lastFile = file;
+        }
+        _lastState._offset = offset;
+    }
+
+    /**
+     * Returns the files read and how far
+     * @return
+     */
+    public Collection<FileState> getFiles() {
+        return _files.values();
+    }
+
+    /**
+     * Returns the analyzers as they were when saved
+     * @return
+     */
+    public List<LogAnalyzer> getAnalyzers() {
+        return _analyzers;
+    }
+
+    /**
+     * Sets the analyzers to save
+     * @param analyzers
+     */
+    public void setAnalyzers(List<? extends LogAnalyzer> analyzers) {
+        _analyzers = new ArrayList<LogAnalyzer>(analyzers);
+    }
+
+    /**
+     * Returns when the checkpoint was last saved
+     * @return
+     */
+    public Date getSaved() {
+        return _saved;
+    }
+
+    private static String getFileKey(File file) throws IOException {
+        Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    /*
+     * Only the first line is hashed, the rest of the event may not have been written yet
+     */
+    private static long hashFirstEvent(File file, Log4jPatternConverter converter) throws IOException {
+        MappedLogFileReader reader = new MappedLogFileReader(file, converter);
+        try {
+            if (!reader.hasNext()) {
+                return 0;
+            }
+            byte[] event = reader.next().getBytes();
+            int length = 0;
+            while (length < event.length && event[length] != '\n' && event[length] != '\r') {
+                length++;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(event, 0, length);
+            return crc.getValue();
+        } finally {
+            reader.close();
+        }
+    }
+
+}
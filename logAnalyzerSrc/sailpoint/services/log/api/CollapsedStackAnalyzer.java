@@ -0,0 +1,86 @@
+package sailpoint.services.log.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.TreeMap;
+
+/**
+ * Outputs the {@link CallTree} of the traced calls as collapsed stacks, the input of flamegraph.pl and speedscope:
+ * one line per distinct call stack, its methods outermost first separated by ';', followed by a space and the
+ * stack's weight.  Stacks are weighed by the time spent in their last method itself, in milliseconds, or by the
+ * number of calls made to it.<br>
+ * <br>
+ * Weights are added up in the tree as the log is read, so the output has a line per call path rather than per
+ * call.  Methods are named without their parameters, stacks differing only by parameters are added together.
+ * Stacks with no weight are left out.
+ * @author trey.kirk
+ *
+ */
+public class CollapsedStackAnalyzer extends CallTreeAnalyzer {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * What each stack is weighed by
+     */
+    public enum Weight {
+        /**
+         * Milliseconds spent in the last method of the stack, less the calls it made
+         */
+        SELF_TIME,
+        /**
+         * Calls made to the last method of the stack
+         */
+        CALLS
+    }
+
+    private Weight _weight;
+
+    public CollapsedStackAnalyzer(String layoutPattern, Weight weight) {
+        super(layoutPattern);
+        _weight = weight;
+    }
+
+    @Override
+    public CollapsedStackAnalyzer newShard() {
+        return configureShard(new CollapsedStackAnalyzer(getLayoutPattern(), _weight));
+    }
+
+    @Override
+    public String compileSummary() {
+        CallTree tree = getCallTree();
+        Map<String, Long> stacks = new TreeMap<String, Long>();
+        Stack<Object[]> pending = new Stack<Object[]>();
+        for (Integer child : tree.getChildren(CallTree.ROOT)) {
+            pending.push(new Object[] {child, ""});
+        }
+        while (!pending.isEmpty()) {
+            Object[] next = pending.pop();
+            int node = (Integer)next[0];
+            String stack = (String)next[1] + getFrame(tree.getMethod(node));
+            long weight = _weight == Weight.CALLS ? tree.getCalls(node) : tree.getExclusive(node);
+            if (weight > 0) {
+                Long total = stacks.get(stack);
+                stacks.put(stack, total == null ? weight : total + weight);
+            }
+            List<Integer> children = tree.getChildren(node);
+            for (Integer child : children) {
+                pending.push(new Object[] {child, stack + ";"});
+            }
+        }
+        StringBuilder buff = new StringBuilder();
+        for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+            buff.append(stack.getKey()).append(' ').append(stack.getValue()).append('\n');
+        }
+        return buff.toString();
+    }
+
+    /*
+     * The method without its parameters, and without the separators of the format
+     */
+    private static String getFrame(String method) {
+        return getMethodName(method).replace(';', ':').replace(' ', '_');
+    }
+
+}
@@ -0,0 +1,211 @@
+package sailpoint.services.log.api;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parses the time stamps of a log's %d token into epoch milliseconds.  The SimpleDateFormat is compiled once
+ * into the positions of its digits so a time stamp is read without creating a formatter, a Date or any String.
+ * The epoch value of the last second seen is cached; since consecutive events nearly always share their second,
+ * most time stamps are parsed by reading the digits and adding the milliseconds.<br>
+ * <br>
+ * Compiles formats made of fixed width numeric fields: 'yyyy', 'MM', 'dd', 'HH', 'mm', 'ss' and 'S's, plus
+ * literal text.  This covers ABSOLUTE, ISO8601 and ISO8601-1.  Fields missing from the format default just as
+ * they do for SimpleDateFormat (midnight, January 1st 1970, local time zone).  Any other format, or any time stamp
+ * that doesn't fit the compiled positions, is parsed by a SimpleDateFormat kept for that purpose.<br>
+ * <br>
+ * Like the {@link Log4jPatternConverter} that owns it, an instance is not thread safe.
+ * @author trey.kirk
+ *
+ */
+public class CompiledDateParser {
+
+    private static Log _log = LogFactory.getLog(CompiledDateParser.class);
+
+    /**
+     * Returned when no time stamp could be parsed
+     */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    // Index of each supported field in the values array
+    private static final int YEAR = 0;
+    private static final int MONTH = 1;
+    private static final int DAY = 2;
+    private static final int HOUR = 3;
+    private static final int MINUTE = 4;
+    private static final int SECOND = 5;
+    private static final int MILLISECOND = 6;
+    private static final String FIELD_LETTERS = "yMdHmsS";
+    private static final int[] FIELD_WIDTHS = {4, 2, 2, 2, 2, 2, 0};
+
+    private String _format;
+    private SimpleDateFormat _fallback;
+    private Calendar _calendar;
+
+    // compiled form: for each position, the field index it belongs to or -1 for a literal
+    private int[] _positions;
+    private char[] _literals;
+    private boolean[] _hasField;
+    private int[] _values;
+
+    private long _cachedSecondKey = -1;
+    private long _cachedSecondTime;
+
+    /**
+     * Compiles the SimpleDateFormat
+     * @param simpleDateFormat
+     */
+    public CompiledDateParser(String simpleDateFormat) {
+        _format = simpleDateFormat;
+        _values = new int[FIELD_LETTERS.length()];
+        _hasField = new boolean[FIELD_LETTERS.length()];
+        if (!compile(simpleDateFormat)) {
+            _log.debug("Date format can't be compiled, using SimpleDateFormat: " + simpleDateFormat);
+            _positions = null;
+        } else {
+            _calendar = Calendar.getInstance();
+        }
+    }
+
+    /*
+     * Builds the digit positions.  Returns false if the format uses anything but the supported fields.
+     */
+    private boolean compile(String format) {
+        StringBuilder literals = new StringBuilder();
+        int[] positions = new int[format.length()];
+        int length = 0;
+        boolean literalText = false;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < format.length() && format.charAt(i + 1) == '\'') {
+                    // escaped quote
+                    positions[length++] = -1;
+                    literals.append(c);
+                    i++;
+                } else {
+                    literalText = !literalText;
+                }
+                continue;
+            }
+            if (literalText || !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+                positions[length++] = -1;
+                literals.append(c);
+                continue;
+            }
+            int field = FIELD_LETTERS.indexOf(c);
+            if (field < 0 || _hasField[field]) {
+                return false;
+            }
+            int run = 1;
+            while (i + run < format.length() && format.charAt(i + run) == c) {
+                run++;
+            }
+            if (FIELD_WIDTHS[field] != 0 && FIELD_WIDTHS[field] != run) {
+                return false;
+            }
+            _hasField[field] = true;
+            for (int r = 0; r < run; r++) {
+                positions[length++] = field;
+                literals.append(c);
+            }
+            i += run - 1;
+        }
+        _positions = new int[length];
+        System.arraycopy(positions, 0, _positions, 0, length);
+        _literals = literals.toString().toCharArray();
+        return true;
+    }
+
+    /**
+     * Returns true if the format was compiled.  Otherwise every time stamp is parsed with a SimpleDateFormat.
+     * @return
+     */
+    public boolean isCompiled() {
+        return _positions != null;
+    }
+
+    /**
+     * Returns the SimpleDateFormat this parser was built from
+     * @return
+     */
+    public String getFormat() {
+        return _format;
+    }
+
+    /**
+     * Parses the time stamp
+     * @param text
+     * @return Epoch milliseconds or {@link #NO_DATE}
+     */
+    public long parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses the time stamp found between start (inclusive) and end (exclusive)
+     * @param text
+     * @param start
+     * @param end
+     * @return Epoch milliseconds or {@link #NO_DATE}
+     */
+    public long parse(CharSequence text, int start, int end) {
+        if (_positions != null && end - start == _positions.length && readFields(text, start)) {
+            long secondKey = ((((((long)_values[YEAR] * 100 + _values[MONTH]) * 100 + _values[DAY]) * 100
+                    + _values[HOUR]) * 100 + _values[MINUTE]) * 100 + _values[SECOND]);
+            if (secondKey != _cachedSecondKey) {
+                _calendar.clear();
+                _calendar.set(_hasField[YEAR] ? _values[YEAR] : 1970, _hasField[MONTH] ? _values[MONTH] - 1 : Calendar.JANUARY,
+                        _hasField[DAY] ? _values[DAY] : 1, _values[HOUR], _values[MINUTE], _values[SECOND]);
+                _cachedSecondTime = _calendar.getTimeInMillis();
+                _cachedSecondKey = secondKey;
+            }
+            return _cachedSecondTime + _values[MILLISECOND];
+        }
+        return parseWithFormatter(text.subSequence(start, end).toString());
+    }
+
+    /*
+     * Reads the digits of each field, false if the text doesn't fit the compiled positions
+     */
+    private boolean readFields(CharSequence text, int start) {
+        int[] values = _values;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 0;
+        }
+        for (int i = 0; i < _positions.length; i++) {
+            char c = text.charAt(start + i);
+            int field = _positions[i];
+            if (field < 0) {
+                if (c != _literals[i]) {
+                    return false;
+                }
+            } else if (c >= '0' && c <= '9') {
+                values[field] = values[field] * 10 + (c - '0');
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseWithFormatter(String dateString) {
+        if (_fallback == null) {
+            _fallback = new SimpleDateFormat(_format);
+        }
+        try {
+            Date d = _fallback.parse(dateString);
+            return d.getTime();
+        } catch (ParseException e) {
+            _log.error("Error parsing date", e);
+            e.printStackTrace();
+        }
+        return NO_DATE;
+    }
+
+}
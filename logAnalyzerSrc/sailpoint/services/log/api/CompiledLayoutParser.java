@@ -0,0 +1,559 @@
+package sailpoint.services.log.api;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Positional scanner compiled from the same LayoutPattern tokens {@link Log4jPatternConverter} turns into its
+ * line regex.  Instead of one large DOTALL regex, each token is read in place: a fixed width date, a padded
+ * priority, a delimiter separated thread and category, a numeric line number and the rest as the message.
+ * Parsing records the start and end of every token's capture group, nothing is copied.<br>
+ * <br>
+ * Only layouts whose tokens can be read positionally compile; {@link #compile(List, String)} returns null for
+ * everything else and the converter keeps using its regex.  Any event the scanner cannot read is also left to
+ * the regex, so the scanner never rejects an event the regex would accept.  Where the regex could read an event
+ * more than one way (a free text token followed by its delimiter more than once), the scanner takes the
+ * left-most reading, while the greedy regex would take the right-most.  For the standard layouts that only
+ * matters for thread names that themselves contain " category:line - ".
+ * @author trey.kirk
+ *
+ */
+public class CompiledLayoutParser {
+
+    private static Log _log = LogFactory.getLog(CompiledLayoutParser.class);
+
+    // Token kinds the scanner knows how to read
+    private static final int KIND_DATE = 0;
+    private static final int KIND_PRIORITY = 1;
+    private static final int KIND_DOT_PATH = 2;
+    private static final int KIND_NUMBER = 3;
+    private static final int KIND_TEXT = 4;
+    private static final int KIND_LINE_SEP = 5;
+    private static final int KIND_PERCENT = 6;
+
+    private static final String[] PRIORITIES = {
+        Log4jPatternConverter.PRIORITY_INFO,
+        Log4jPatternConverter.PRIORITY_TRACE,
+        Log4jPatternConverter.PRIORITY_DEBUG,
+        Log4jPatternConverter.PRIORITY_WARN,
+        Log4jPatternConverter.PRIORITY_ERROR
+    };
+
+    // Characters the converter's date regex would treat as something other than a literal
+    private static final String REGEX_META = "\\^$.|?*+()[]{}";
+
+    /**
+     * A single LayoutPattern token as extracted by the converter
+     */
+    static class Field {
+        private char _identifier;
+        private String _qualifier;
+        private Integer _indention;
+        private String _trailing;
+        private int _group;
+
+        Field(char identifier, String qualifier, Integer indention, String trailing, int group) {
+            _identifier = identifier;
+            _qualifier = qualifier;
+            _indention = indention;
+            _trailing = trailing;
+            _group = group;
+        }
+    }
+
+    /*
+     * A token compiled for scanning
+     */
+    private static class CompiledField {
+        private int _kind;
+        private int _group;
+        private boolean _padBefore;
+        private boolean _padAfter;
+        private String _trailing = "";
+        // date: the fixed shape, where a digit is required wherever _digits is true
+        private char[] _shape;
+        private boolean[] _digits;
+        // dot path: number of segments requested
+        private int _segments;
+    }
+
+    private CompiledField[] _fields;
+    private int _groupCount;
+
+    private CompiledLayoutParser(CompiledField[] fields, int groupCount) {
+        _fields = fields;
+        _groupCount = groupCount;
+    }
+
+    /**
+     * Compiles the layout tokens, returning null when the layout can't be read positionally
+     * @param fields Tokens in layout order
+     * @param simpleDateFormat The SimpleDateFormat the date token resolved to, if any
+     * @return
+     */
+    static CompiledLayoutParser compile(List<Field> fields, String simpleDateFormat) {
+        CompiledField[] compiled = new CompiledField[fields.size()];
+        int groupCount = 0;
+        for (int i = 0; i < compiled.length; i++) {
+            Field field = fields.get(i);
+            CompiledField cf = new CompiledField();
+            cf._group = field._group;
+            groupCount = Math.max(groupCount, field._group);
+            cf._padBefore = field._indention != null && field._indention > 0;
+            cf._padAfter = field._indention != null && field._indention < 0;
+            if (field._trailing != null) {
+                cf._trailing = field._trailing;
+            }
+            switch (field._identifier) {
+            case 'd':
+                cf._kind = KIND_DATE;
+                if (!compileDate(cf, simpleDateFormat)) {
+                    _log.debug("Date format can't be scanned positionally: " + simpleDateFormat);
+                    return null;
+                }
+                break;
+            case 'p':
+                cf._kind = KIND_PRIORITY;
+                break;
+            case 'c':
+            case 'C':
+            case 'F':
+                cf._kind = KIND_DOT_PATH;
+                cf._segments = field._qualifier != null ? Integer.valueOf(field._qualifier) : 1;
+                break;
+            case 'l':
+            case 'L':
+            case 'r':
+                cf._kind = KIND_NUMBER;
+                break;
+            case 'm':
+            case 't':
+            case 'M':
+            case 'x':
+            case 'X':
+                cf._kind = KIND_TEXT;
+                break;
+            case 'n':
+                cf._kind = KIND_LINE_SEP;
+                break;
+            case '%':
+                cf._kind = KIND_PERCENT;
+                break;
+            default:
+                _log.debug("Unsupported identifier: " + field._identifier);
+                return null;
+            }
+            compiled[i] = cf;
+        }
+
+        // The scanner reads each token to its natural end, which is only the regex's reading when the
+        // character that follows can't be part of the token
+        for (int i = 0; i < compiled.length; i++) {
+            CompiledField cf = compiled[i];
+            boolean last = i == compiled.length - 1;
+            switch (cf._kind) {
+            case KIND_DOT_PATH:
+            case KIND_NUMBER:
+                if (!cf._padAfter && (cf._trailing.length() == 0 || isTokenChar(cf._kind, cf._trailing.charAt(0)))) {
+                    return null;
+                }
+                break;
+            case KIND_TEXT:
+                if (cf._padBefore || cf._padAfter) {
+                    return null;
+                }
+                if (cf._trailing.length() == 0 && !last && !endsAtLineSep(compiled, i + 1)) {
+                    return null;
+                }
+                break;
+            case KIND_LINE_SEP:
+                if (!last || cf._trailing.length() > 0) {
+                    return null;
+                }
+                break;
+            }
+        }
+        return new CompiledLayoutParser(compiled, groupCount);
+    }
+
+    /**
+     * Compiles the fixed leading part of the layout into a boundary filter, null when events don't start with one
+     * @param fields Tokens in layout order
+     * @param simpleDateFormat The SimpleDateFormat the date token resolved to, if any
+     * @return
+     */
+    static EventBoundaryFilter compileBoundary(List<Field> fields, String simpleDateFormat) {
+        StringBuilder steps = new StringBuilder();
+        StringBuilder literals = new StringBuilder();
+        for (Field field : fields) {
+            boolean fixed;
+            if (field._identifier == 'p') {
+                // the priority skips its own padding
+                steps.append((char)EventBoundaryFilter.STEP_PRIORITY);
+                literals.append(' ');
+                fixed = true;
+            } else if (field._identifier == 'd' && (field._indention == null || field._indention <= 0)) {
+                fixed = appendDateSteps(simpleDateFormat, steps, literals);
+            } else {
+                fixed = false;
+            }
+            if (!fixed || (field._indention != null && field._indention < 0)) {
+                break;
+            }
+            if (field._trailing != null) {
+                for (int i = 0; i < field._trailing.length(); i++) {
+                    steps.append((char)EventBoundaryFilter.STEP_LITERAL);
+                    literals.append(field._trailing.charAt(i));
+                }
+            }
+        }
+        if (steps.length() == 0) {
+            return null;
+        }
+        byte[] stepArray = new byte[steps.length()];
+        for (int i = 0; i < stepArray.length; i++) {
+            stepArray[i] = (byte)steps.charAt(i);
+        }
+        return new EventBoundaryFilter(stepArray, literals.toString().toCharArray());
+    }
+
+    /*
+     * Appends a step for each character of the date up to the first one the converter's regex doesn't fix,
+     * returning false if there was one
+     */
+    private static boolean appendDateSteps(String format, StringBuilder steps, StringBuilder literals) {
+        if (format == null) {
+            return false;
+        }
+        boolean literalText = false;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '\'') {
+                literalText = !literalText;
+                continue;
+            }
+            if (!literalText && "ywDdFHkKhmsS".indexOf(c) >= 0) {
+                steps.append((char)EventBoundaryFilter.STEP_DIGIT);
+                literals.append('0');
+            } else if (literalText || "GMEzZ".indexOf(c) < 0) {
+                if (REGEX_META.indexOf(c) >= 0) {
+                    return false;
+                }
+                steps.append((char)EventBoundaryFilter.STEP_LITERAL);
+                literals.append(c);
+            } else {
+                // text or a variable width
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * True when nothing but a trailing line separator follows
+     */
+    private static boolean endsAtLineSep(CompiledField[] fields, int from) {
+        return from == fields.length - 1 && fields[from]._kind == KIND_LINE_SEP && !fields[from]._padBefore;
+    }
+
+    private static boolean isTokenChar(int kind, char c) {
+        if (kind == KIND_NUMBER) {
+            return (c >= '0' && c <= '9') || c == '?';
+        }
+        return isPathChar(c) || c == '.';
+    }
+
+    private static boolean isPathChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '$' || c == '?';
+    }
+
+    private static boolean isWhitespace(char c) {
+        // regex \s
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /*
+     * Mirrors the converter's SimpleDateFormat to regex conversion, but only for formats that result in a fixed
+     * width of digits and literals.  Month is the exception: the converter lets 'M' match anything, here 'MM' is
+     * read as two digits.  Events with any other month are left to the regex.
+     */
+    private static boolean compileDate(CompiledField cf, String format) {
+        if (format == null) {
+            return false;
+        }
+        StringBuilder shape = new StringBuilder();
+        StringBuilder digits = new StringBuilder();
+        boolean literalText = false;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '\'' && literalText) {
+                if (REGEX_META.indexOf(c) >= 0) {
+                    return false;
+                }
+                shape.append(c);
+                digits.append('n');
+                continue;
+            }
+            switch (c) {
+                case 'y':
+                case 'w':
+                case 'D':
+                case 'd':
+                case 'F':
+                case 'H':
+                case 'k':
+                case 'K':
+                case 'h':
+                case 'm':
+                case 's':
+                case 'S':
+                    shape.append('0');
+                    digits.append('y');
+                    break;
+                case 'M':
+                    int run = 1;
+                    while (i + run < format.length() && format.charAt(i + run) == 'M') {
+                        run++;
+                    }
+                    if (run != 2) {
+                        return false;
+                    }
+                    shape.append("00");
+                    digits.append("yy");
+                    i++;
+                    break;
+                case 'G':
+                case 'E':
+                case 'z':
+                case 'Z':
+                    return false;
+                case '\'':
+                    literalText = !literalText;
+                    break;
+                default:
+                    if (REGEX_META.indexOf(c) >= 0) {
+                        return false;
+                    }
+                    shape.append(c);
+                    digits.append('n');
+            }
+        }
+        cf._shape = shape.toString().toCharArray();
+        cf._digits = new boolean[cf._shape.length];
+        for (int i = 0; i < cf._digits.length; i++) {
+            cf._digits[i] = digits.charAt(i) == 'y';
+        }
+        return cf._shape.length > 0;
+    }
+
+    /**
+     * Returns the highest capture group number any token is assigned to
+     * @return
+     */
+    public int getGroupCount() {
+        return _groupCount;
+    }
+
+    /**
+     * Returns true when the layout starts with its date, which can then be read on its own, see
+     * {@link #parseLeadingDate(CharSequence, CompiledDateParser)}
+     * @return
+     */
+    public boolean isDateLeading() {
+        return _fields.length > 0 && _fields[0]._kind == KIND_DATE;
+    }
+
+    /**
+     * Reads the date the event starts with and nothing after it, so the rest of the event isn't checked
+     * against the layout.  Only for layouts that lead with their date.
+     * @param event
+     * @param dateParser The parser of the layout's date format
+     * @return The time or {@link CompiledDateParser#NO_DATE} if the event doesn't start with a date
+     */
+    public long parseLeadingDate(CharSequence event, CompiledDateParser dateParser) {
+        CompiledField cf = _fields[0];
+        int start = cf._padBefore ? skipWhitespace(event, 0) : 0;
+        int end = scanDate(cf, event, start);
+        if (end < 0) {
+            return CompiledDateParser.NO_DATE;
+        }
+        return dateParser.parse(event, start, end);
+    }
+
+    /**
+     * Parses the event, recording each token's group boundaries.  Arrays are indexed by group number and must
+     * hold at least {@link #getGroupCount()} + 1 elements.
+     * @param event
+     * @param starts Receives the start of each group
+     * @param ends Receives the end of each group
+     * @return true if the event was read
+     */
+    public boolean parse(CharSequence event, int[] starts, int[] ends) {
+        return parse(event, 0, 0, starts, ends);
+    }
+
+    private boolean parse(CharSequence event, int fieldIndex, int pos, int[] starts, int[] ends) {
+        int length = event.length();
+        for (int f = fieldIndex; f < _fields.length; f++) {
+            CompiledField cf = _fields[f];
+            if (cf._padBefore) {
+                pos = skipWhitespace(event, pos);
+            }
+            int start = pos;
+            switch (cf._kind) {
+            case KIND_DATE:
+                pos = scanDate(cf, event, pos);
+                break;
+            case KIND_PRIORITY:
+                start = skipWhitespace(event, pos);
+                pos = scanPriority(event, start);
+                break;
+            case KIND_DOT_PATH:
+                pos = scanDotPath(cf, event, pos);
+                break;
+            case KIND_NUMBER:
+                pos = scanNumber(event, pos);
+                break;
+            case KIND_PERCENT:
+                pos = pos < length && event.charAt(pos) == '%' ? pos + 1 : -1;
+                break;
+            case KIND_LINE_SEP:
+                pos = pos == length ? pos : -1;
+                break;
+            case KIND_TEXT:
+                if (cf._trailing.length() == 0) {
+                    // runs to the end, anything after it is an end-of-input line separator
+                    starts[cf._group] = start;
+                    ends[cf._group] = length;
+                    pos = length;
+                    continue;
+                }
+                // try each occurrence of the delimiter, left most first
+                int candidate = indexOf(event, cf._trailing, pos);
+                while (candidate >= 0) {
+                    if (parse(event, f + 1, candidate + cf._trailing.length(), starts, ends)) {
+                        starts[cf._group] = start;
+                        ends[cf._group] = candidate;
+                        return true;
+                    }
+                    candidate = indexOf(event, cf._trailing, candidate + 1);
+                }
+                return false;
+            }
+            if (pos < 0) {
+                return false;
+            }
+            starts[cf._group] = start;
+            ends[cf._group] = pos;
+            if (cf._padAfter) {
+                pos = skipWhitespace(event, pos);
+            }
+            if (!regionMatches(event, pos, cf._trailing)) {
+                return false;
+            }
+            pos += cf._trailing.length();
+        }
+        return pos == length;
+    }
+
+    static int skipWhitespace(CharSequence event, int pos) {
+        int length = event.length();
+        while (pos < length && isWhitespace(event.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int scanDate(CompiledField cf, CharSequence event, int pos) {
+        char[] shape = cf._shape;
+        if (pos + shape.length > event.length()) {
+            return -1;
+        }
+        for (int i = 0; i < shape.length; i++) {
+            char c = event.charAt(pos + i);
+            if (cf._digits[i] ? (c < '0' || c > '9') : c != shape[i]) {
+                return -1;
+            }
+        }
+        return pos + shape.length;
+    }
+
+    static int scanPriority(CharSequence event, int pos) {
+        for (String priority : PRIORITIES) {
+            if (regionMatches(event, pos, priority)) {
+                return pos + priority.length();
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Reads [a-zA-Z0-9_$?.]+ and verifies the regex ([a-zA-Z0-9_$?]+\.?){n} could match it: dots only
+     * between (or after) non-empty segments, no more segments than n and at least n characters.
+     */
+    private static int scanDotPath(CompiledField cf, CharSequence event, int pos) {
+        int length = event.length();
+        int segments = 0;
+        int pathChars = 0;
+        boolean inSegment = false;
+        int i = pos;
+        while (i < length) {
+            char c = event.charAt(i);
+            if (isPathChar(c)) {
+                if (!inSegment) {
+                    segments++;
+                    inSegment = true;
+                }
+                pathChars++;
+            } else if (c == '.' && inSegment) {
+                inSegment = false;
+            } else {
+                break;
+            }
+            i++;
+        }
+        if (segments == 0 || segments > cf._segments || pathChars < cf._segments) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static int scanNumber(CharSequence event, int pos) {
+        int length = event.length();
+        if (pos < length && event.charAt(pos) == '?') {
+            return pos + 1;
+        }
+        int i = pos;
+        while (i < length && event.charAt(i) >= '0' && event.charAt(i) <= '9') {
+            i++;
+        }
+        return i > pos ? i : -1;
+    }
+
+    private static boolean regionMatches(CharSequence event, int pos, String literal) {
+        int literalLength = literal.length();
+        if (pos + literalLength > event.length()) {
+            return false;
+        }
+        for (int i = 0; i < literalLength; i++) {
+            if (event.charAt(pos + i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence event, String literal, int from) {
+        int last = event.length() - literal.length();
+        char first = literal.charAt(0);
+        for (int i = from; i <= last; i++) {
+            if (event.charAt(i) == first && regionMatches(event, i, literal)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
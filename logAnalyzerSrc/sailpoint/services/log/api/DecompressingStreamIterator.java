@@ -0,0 +1,269 @@
+package sailpoint.services.log.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Opens a list of {@link LogSource}s one after another.  Plain files are simply opened.  Each compressed log is
+ * inflated by its own thread into a bounded buffer, and those threads are started a few logs ahead of the one
+ * being read.  A bundle of rotated, gzip'd logs is therefore inflated on several cores while the current log is
+ * being analyzed, without holding more than a few megabytes of each log in memory.<br>
+ * <br>
+ * Every log has its own buffer, so a thread that's ahead simply waits for room and never holds up the log being
+ * read.
+ * @author trey.kirk
+ *
+ */
+public class DecompressingStreamIterator implements Iterator<InputStream> {
+
+    private static Log _log = LogFactory.getLog(DecompressingStreamIterator.class);
+
+    // bytes per buffered block and blocks buffered per log
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCKS = 16;
+
+    private static final byte[] END = new byte[0];
+
+    /*
+     * Reads the blocks a LogInflater thread produces.  available() reports what the current block holds, waiting
+     * for the next one if needed, so readers that use ready() to find the end of a file see the end of the log
+     * and not just the end of what's been inflated so far.
+     */
+    private static class BufferedLogStream extends InputStream {
+
+        private BlockingQueue<byte[]> _blocks;
+        private LogInflater _inflater;
+        private byte[] _block;
+        private int _position;
+        private boolean _eof;
+
+        private BufferedLogStream(LogInflater inflater) {
+            _inflater = inflater;
+            _blocks = inflater._blocks;
+        }
+
+        /*
+         * Makes sure there's something to read, false at the end of the log
+         */
+        private boolean fill() throws IOException {
+            while (!_eof && (_block == null || _position >= _block.length)) {
+                try {
+                    _block = _blocks.take();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted while reading " + _inflater._source, e);
+                }
+                _position = 0;
+                if (_block == END) {
+                    _eof = true;
+                    if (_inflater._error != null) {
+                        throw new IOException("Error inflating " + _inflater._source, _inflater._error);
+                    }
+                }
+            }
+            return !_eof;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return _block[_position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, _block.length - _position);
+            System.arraycopy(_block, _position, b, off, count);
+            _position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (!fill()) {
+                return 0;
+            }
+            return _block.length - _position;
+        }
+
+        @Override
+        public void close() {
+            _inflater.cancel();
+        }
+    }
+
+    /*
+     * Inflates one log into its buffer
+     */
+    private static class LogInflater implements Runnable {
+
+        private LogSource _source;
+        private BlockingQueue<byte[]> _blocks;
+        private Thread _thread;
+        private volatile Exception _error;
+
+        private LogInflater(LogSource source) {
+            _source = source;
+            _blocks = new ArrayBlockingQueue<byte[]>(BLOCKS);
+        }
+
+        private void start() {
+            _thread = new Thread(this, "LogInflater-" + _source.getFile().getName());
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        public void run() {
+            InputStream in = null;
+            try {
+                in = _source.open();
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int filled = 0;
+                int read;
+                while ((read = in.read(buffer, filled, buffer.length - filled)) >= 0) {
+                    filled += read;
+                    if (filled == buffer.length) {
+                        _blocks.put(buffer);
+                        buffer = new byte[BLOCK_SIZE];
+                        filled = 0;
+                    }
+                }
+                if (filled > 0) {
+                    _blocks.put(Arrays.copyOf(buffer, filled));
+                }
+            } catch (InterruptedException e) {
+                _log.debug("Inflating " + _source + " cancelled");
+                return;
+            } catch (IOException e) {
+                _error = e;
+            } catch (RuntimeException e) {
+                _error = e;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        _log.warn("Error closing " + _source, e);
+                    }
+                }
+            }
+            try {
+                _blocks.put(END);
+            } catch (InterruptedException e) {
+                _log.debug("Inflating " + _source + " cancelled");
+            }
+        }
+
+        private void cancel() {
+            if (_thread != null) {
+                _thread.interrupt();
+            }
+        }
+    }
+
+    private List<LogSource> _sources;
+    private LogInflater[] _inflaters;
+    private int _lookahead;
+    private int _next;
+    private LogSource _current;
+
+    /**
+     * Opens the sources with one inflating thread per processor
+     * @param sources
+     */
+    public DecompressingStreamIterator(List<LogSource> sources) {
+        this (sources, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param sources
+     * @param lookahead Number of logs beyond the current one that may be inflated ahead of time
+     */
+    public DecompressingStreamIterator(List<LogSource> sources, int lookahead) {
+        _sources = sources;
+        _lookahead = Math.max(0, lookahead);
+        _inflaters = new LogInflater[sources.size()];
+        startInflaters();
+    }
+
+    /*
+     * Starts inflating every compressed log within the look ahead window
+     */
+    private void startInflaters() {
+        int last = Math.min(_sources.size() - 1, _next + _lookahead);
+        for (int i = _next; i <= last; i++) {
+            LogSource source = _sources.get(i);
+            if (_inflaters[i] == null && source.isCompressed()) {
+                _log.debug("Inflating " + source);
+                _inflaters[i] = new LogInflater(source);
+                _inflaters[i].start();
+            }
+        }
+    }
+
+    public boolean hasNext() {
+        return _next < _sources.size();
+    }
+
+    /**
+     * Opens the next log.  The caller is responsible for closing it.
+     */
+    public InputStream next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int index = _next++;
+        _current = _sources.get(index);
+        startInflaters();
+        LogInflater inflater = _inflaters[index];
+        _inflaters[index] = null;
+        if (inflater != null) {
+            return new BufferedLogStream(inflater);
+        }
+        try {
+            return _current.open();
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening " + _current, e);
+        }
+    }
+
+    /**
+     * Returns the log last returned by {@link #next()}
+     * @return
+     */
+    public LogSource getCurrent() {
+        return _current;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops every inflating thread
+     */
+    public void close() {
+        for (LogInflater inflater : _inflaters) {
+            if (inflater != null) {
+                inflater.cancel();
+            }
+        }
+    }
+
+}
@@ -56,8 +56,15 @@ public class DosFileNameFilter implements FilenameFilter {
         }
     }
 
+    /**
+     * Accepts names matching the pattern.  Compressed logs are also accepted when their name matches
+     * without the compression suffix, so "*.log" finds "sailpoint.log.gz" too.
+     */
     public boolean accept(File dir, String name) {
-        return _pattern.matcher(name).matches();
+        if (_pattern.matcher(name).matches()) {
+            return true;
+        }
+        return LogSource.isCompressed(name) && _pattern.matcher(LogSource.stripCompressionSuffix(name)).matches();
     }
 
     @Override
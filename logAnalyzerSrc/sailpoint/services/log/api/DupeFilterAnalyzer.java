@@ -1,13 +1,17 @@
 package sailpoint.services.log.api;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-public class DupeFilterAnalyzer extends FastLogAnalyzer {
+public class DupeFilterAnalyzer extends FastLogAnalyzer implements StreamingAnalyzer, MergeableAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
     private String _lastEvent;
     private List<String> _events;
+    private transient Writer _output;
     
     public DupeFilterAnalyzer(String layoutPattern) {
         super();
@@ -19,12 +23,42 @@ public class DupeFilterAnalyzer extends FastLogAnalyzer {
         
         if (_lastEvent == null || _lastEvent != null && !_lastEvent.equals(event)) {
             // no match, keep it
-            _events.add(event);
+            if (_output != null) {
+                writeEvent(_output, event);
+            } else {
+                _events.add(event);
+            }
         }
         _lastEvent = event;
         return true;
     }
 
+    public void setOutput(Writer out) {
+        _output = out;
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
+    /**
+     * Adds the events the partial kept after this filter's.  The partial always keeps its first event, which is
+     * dropped when it duplicates the last event of this filter's partition.
+     */
+    public void merge(MergeableAnalyzer partial) {
+        DupeFilterAnalyzer filter = checkPartial(partial);
+        if (filter._lastEvent == null) {
+            // nothing analyzed
+            return;
+        }
+        int first = 0;
+        if (!filter._events.isEmpty() && filter._events.get(0).equals(_lastEvent)) {
+            first = 1;
+        }
+        _events.addAll(filter._events.subList(first, filter._events.size()));
+        _lastEvent = filter._lastEvent;
+    }
+
     @Override
     public String compileSummary() {
         StringBuilder buff = new StringBuilder();
@@ -0,0 +1,87 @@
+package sailpoint.services.log.api;
+
+/**
+ * Quick test of whether a line could start a log event, compiled from the leading tokens of the layout.  The part
+ * every event starts with (usually the digits and separators of the date, then the priority) is compared character
+ * by character, so continuation lines like the elements of a stack trace are turned away after a character or two
+ * instead of being run against the line pattern.<br>
+ * <br>
+ * The filter never turns away a line the line pattern would accept: it stops at the first token whose width the
+ * layout doesn't fix.  A line it accepts still has to match the line pattern, see
+ * {@link Log4jPatternConverter#isEventStart(CharSequence)}.
+ * @author trey.kirk
+ *
+ */
+public class EventBoundaryFilter {
+
+    // What each step of the filter reads
+    static final byte STEP_DIGIT = 0;
+    static final byte STEP_LITERAL = 1;
+    static final byte STEP_PRIORITY = 2;
+
+    private byte[] _steps;
+    private char[] _literals;
+
+    /*
+     * Steps in line order, with the character each literal step expects
+     */
+    EventBoundaryFilter(byte[] steps, char[] literals) {
+        _steps = steps;
+        _literals = literals;
+    }
+
+    /**
+     * Returns false if the line can't be the start of an event
+     * @param line
+     * @return
+     */
+    public boolean accepts(CharSequence line) {
+        int length = line.length();
+        int pos = 0;
+        for (int i = 0; i < _steps.length; i++) {
+            switch (_steps[i]) {
+            case STEP_DIGIT:
+                if (pos >= length) {
+                    return false;
+                }
+                char c = line.charAt(pos++);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+                break;
+            case STEP_LITERAL:
+                if (pos >= length || line.charAt(pos++) != _literals[i]) {
+                    return false;
+                }
+                break;
+            case STEP_PRIORITY:
+                pos = CompiledLayoutParser.scanPriority(line, CompiledLayoutParser.skipWhitespace(line, pos));
+                if (pos < 0) {
+                    return false;
+                }
+                break;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < _steps.length; i++) {
+            switch (_steps[i]) {
+            case STEP_DIGIT:
+                buff.append('0');
+                break;
+            case STEP_LITERAL:
+                buff.append(_literals[i]);
+                break;
+            case STEP_PRIORITY:
+                buff.append("<priority>");
+                break;
+            }
+        }
+        return buff.toString();
+    }
+
+}
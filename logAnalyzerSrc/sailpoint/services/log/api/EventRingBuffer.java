@@ -0,0 +1,128 @@
+package sailpoint.services.log.api;
+
+/**
+ * A bounded ring buffer with one producer and a fixed number of consumers, every one of which sees every item in
+ * the order it was published.  Each consumer has its own position in the ring, so a fast consumer doesn't wait on a
+ * slow one until the ring is full; the producer only waits when the slowest consumer is a whole ring behind.<br>
+ * <br>
+ * Items are meant to be batches: the ring locks once per item, so handing events over a few hundred at a time keeps
+ * the threads from contending for it.
+ * @author trey.kirk
+ *
+ * @param <T>
+ */
+public class EventRingBuffer<T> {
+
+    private Object[] _slots;
+    private int _mask;
+    // sequence of the next item published
+    private long _published;
+    // sequence of the next item each consumer takes
+    private long[] _consumed;
+    private boolean _closed;
+    private boolean _aborted;
+    private boolean _producerWaiting;
+
+    /**
+     * @param capacity Items the ring holds, rounded up to a power of two
+     * @param consumers Number of consumers, numbered from 0
+     */
+    public EventRingBuffer(int capacity, int consumers) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        if (consumers < 1) {
+            throw new IllegalArgumentException("There must be at least one consumer: " + consumers);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        _slots = new Object[size];
+        _mask = size - 1;
+        _consumed = new long[consumers];
+    }
+
+    /*
+     * Sequence of the item the slowest consumer takes next
+     */
+    private long getSlowest() {
+        long slowest = _published;
+        for (long consumed : _consumed) {
+            slowest = Math.min(slowest, consumed);
+        }
+        return slowest;
+    }
+
+    /**
+     * Publishes an item, waiting for the slowest consumer to make room for it
+     * @param item
+     * @return false if the ring was aborted and the item dropped
+     * @throws InterruptedException
+     */
+    public synchronized boolean publish(T item) throws InterruptedException {
+        if (_closed) {
+            throw new IllegalStateException("Ring is closed");
+        }
+        while (!_aborted && _published - getSlowest() >= _slots.length) {
+            _producerWaiting = true;
+            wait();
+        }
+        _producerWaiting = false;
+        if (_aborted) {
+            return false;
+        }
+        _slots[(int)(_published & _mask)] = item;
+        _published++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Takes the consumer's next item, waiting for one to be published
+     * @param consumer
+     * @return The item, or null once the ring is closed and the consumer has taken everything, or the ring is aborted
+     * @throws InterruptedException
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T take(int consumer) throws InterruptedException {
+        long sequence = _consumed[consumer];
+        while (!_aborted && !_closed && sequence == _published) {
+            wait();
+        }
+        if (_aborted || sequence == _published) {
+            return null;
+        }
+        int slot = (int)(sequence & _mask);
+        T item = (T)_slots[slot];
+        _consumed[consumer] = sequence + 1;
+        if (getSlowest() > sequence) {
+            // every consumer has it
+            _slots[slot] = null;
+        }
+        if (_producerWaiting) {
+            notifyAll();
+        }
+        return item;
+    }
+
+    /**
+     * Signals nothing more will be published.  Consumers still take what's already published.
+     */
+    public synchronized void close() {
+        _closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Drops whatever's in the ring and wakes every waiting thread, the producer and consumers alike
+     */
+    public synchronized void abort() {
+        _aborted = true;
+        for (int i = 0; i < _slots.length; i++) {
+            _slots[i] = null;
+        }
+        notifyAll();
+    }
+
+}
@@ -1,9 +1,15 @@
 package sailpoint.services.log.api;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-public abstract class FastLogAnalyzer implements LogAnalyzer {
+public abstract class FastLogAnalyzer implements ParsedLogAnalyzer, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     public static final int FAST_LIMIT = 250;
     private boolean _tryFast = false;
@@ -15,6 +21,12 @@ public abstract class FastLogAnalyzer implements LogAnalyzer {
         super();
     }
 
+    /**
+     * Copies the event up to the fast parse limit and closes it with a ')'
+     * @deprecated The copy is still parsed in full and its message no longer reads as logged.  Use
+     * {@link #parse(Log4jPatternConverter, String)}, which reads only up to the limit without copying the event.
+     */
+    @Deprecated
     protected String trimmedMessage(String originalLogEvent) {
         _log.trace("Entering trimmedMessage: originalLogEvent=" + originalLogEvent);
     
@@ -27,6 +39,72 @@ public abstract class FastLogAnalyzer implements LogAnalyzer {
         return originalLogEvent;
     }
 
+    /**
+     * Parses the event.  When fast parsing, the tokens leading the event are parsed as usual and the message ends
+     * at the character limit, see {@link Log4jPatternConverter#parse(CharSequence, int)}.
+     * @param converter
+     * @param logEvent
+     * @return
+     */
+    protected ParsedLogEvent parse(Log4jPatternConverter converter, String logEvent) {
+        return converter.parse(logEvent, getParseLimit());
+    }
+
+    /**
+     * Returns the event as far as it's parsed, a view of its start when fast parsing
+     * @param logEvent
+     * @return
+     */
+    protected CharSequence boundedEvent(String logEvent) {
+        return Log4jPatternConverter.bound(logEvent, getParseLimit());
+    }
+
+    /**
+     * Returns the number of characters of an event parsed, no limit unless fast parsing
+     * @return
+     */
+    protected int getParseLimit() {
+        return _tryFast ? _fastLimit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Writes an event followed by a new line, see {@link StreamingAnalyzer}.  The two are written as one,
+     * should other threads share the output.
+     * @param out
+     * @param event
+     */
+    protected static void writeEvent(Writer out, String event) {
+        try {
+            synchronized (out) {
+                out.write(event);
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing event", e);
+        }
+    }
+
+    /**
+     * Checks a partial to be merged is of this analyzer's kind, see {@link MergeableAnalyzer#merge(MergeableAnalyzer)}
+     * @param partial
+     * @return The partial
+     */
+    @SuppressWarnings("unchecked")
+    protected <T extends FastLogAnalyzer> T checkPartial(LogAnalyzer partial) {
+        if (partial == null || partial.getClass() != getClass()) {
+            throw new IllegalArgumentException("Can't merge " + (partial == null ? null : partial.getClass().getName()) + " into " + getClass().getName());
+        }
+        return (T)partial;
+    }
+
+    /**
+     * Analyzers that parse events override this to use the shared parse.  By default the event is
+     * simply added as a String.
+     */
+    public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent) {
+        return addLogEvent(logEvent);
+    }
+
     public void setDoFast(boolean tryFast) {
         _log.debug("Fast mode: " + tryFast);
         _tryFast = tryFast;
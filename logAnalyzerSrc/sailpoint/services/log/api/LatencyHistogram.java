@@ -0,0 +1,151 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Counts durations in logarithmic buckets, so percentiles of any number of them can be reported from a few
+ * hundred counters at most.  Durations under 128 are counted exactly.  Above that, each power of two is split
+ * into 64 buckets, so a reported percentile is within 1/64th of the duration it stands for.  The count, total,
+ * shortest and longest are kept exactly.<br>
+ * <br>
+ * Buckets are only allocated up to the longest duration counted: a method that never takes more than a few
+ * milliseconds keeps a handful of counters however often it's called.  Histograms of the same durations
+ * counted separately can be added together, see {@link #add(LatencyHistogram)}.
+ * @author trey.kirk
+ *
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // durations below 2^EXACT_BITS have a bucket of their own
+    private static final int EXACT_BITS = 7;
+    private static final int EXACT_COUNT = 1 << EXACT_BITS;
+    // buckets per power of two above that
+    private static final int SUB_BUCKETS = EXACT_COUNT / 2;
+
+    private long[] _counts;
+    private long _count;
+    private long _total;
+    private long _min = Long.MAX_VALUE;
+    private long _max = Long.MIN_VALUE;
+
+    public LatencyHistogram() {
+        _counts = new long[0];
+    }
+
+    /**
+     * Counts a duration.  Negative durations, from clocks stepping back, are counted in the bucket of 0 but
+     * are still the shortest and part of the total.
+     * @param duration
+     */
+    public void record(long duration) {
+        int index = getIndex(Math.max(duration, 0));
+        if (index >= _counts.length) {
+            _counts = Arrays.copyOf(_counts, index + 1);
+        }
+        _counts[index]++;
+        _count++;
+        _total += duration;
+        _min = Math.min(_min, duration);
+        _max = Math.max(_max, duration);
+    }
+
+    /**
+     * Adds the durations counted by the other histogram to this one's
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        if (other._counts.length > _counts.length) {
+            _counts = Arrays.copyOf(_counts, other._counts.length);
+        }
+        for (int i = 0; i < other._counts.length; i++) {
+            _counts[i] += other._counts[i];
+        }
+        _count += other._count;
+        _total += other._total;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+    }
+
+    /*
+     * Exact below EXACT_COUNT, otherwise the top EXACT_BITS - 1 bits below the highest one pick the bucket
+     * within its power of two
+     */
+    private static int getIndex(long duration) {
+        if (duration < EXACT_COUNT) {
+            return (int)duration;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(duration);
+        int shift = magnitude - (EXACT_BITS - 1);
+        return EXACT_COUNT + (magnitude - EXACT_BITS) * SUB_BUCKETS + (int)((duration >>> shift) - SUB_BUCKETS);
+    }
+
+    /*
+     * The highest duration counted in the bucket
+     */
+    private static long getHighest(int index) {
+        if (index < EXACT_COUNT) {
+            return index;
+        }
+        int magnitude = (index - EXACT_COUNT) / SUB_BUCKETS + EXACT_BITS;
+        int shift = magnitude - (EXACT_BITS - 1);
+        long lowest = (long)((index - EXACT_COUNT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the duration the percentage of durations counted are at or below, to within the precision of the
+     * buckets.  Never more than the longest duration counted.
+     * @param percentile From 0 to 100
+     * @return The duration, or 0 when none were counted
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (_count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * _count));
+        long seen = 0;
+        for (int i = 0; i < _counts.length; i++) {
+            seen += _counts[i];
+            if (seen >= rank) {
+                return Math.max(Math.min(getHighest(i), _max), _min);
+            }
+        }
+        return _max;
+    }
+
+    /**
+     * Returns the number of durations counted
+     * @return
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Returns the sum of the durations counted
+     * @return
+     */
+    public long getTotal() {
+        return _total;
+    }
+
+    /**
+     * Returns the shortest duration counted, 0 when none were
+     * @return
+     */
+    public long getMin() {
+        return _count == 0 ? 0 : _min;
+    }
+
+    /**
+     * Returns the longest duration counted, 0 when none were
+     * @return
+     */
+    public long getMax() {
+        return _count == 0 ? 0 : _max;
+    }
+
+}
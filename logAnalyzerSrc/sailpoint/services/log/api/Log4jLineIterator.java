@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.regex.Pattern;
 
 /**
  * Log4j Line Iterator.  This class will take in a LayoutPattern and a Log4j log file and iterate
@@ -20,7 +19,7 @@ import java.util.regex.Pattern;
  */
 public class Log4jLineIterator implements Iterable<String> {
 
-    private LineIterator _iterator;
+    private Iterator<String> _iterator;
 
     /**
      * Standard constructor taking in a file name and layout pattern.  
@@ -45,7 +44,19 @@ public class Log4jLineIterator implements Iterable<String> {
     }
 
     /**
-     * Standard constructor taking in a BufferedReader and layout pattern.  All constructors eventually lead to this one.  
+     * Constructor that follows the file as it grows.  The iterator reads the whole file and then waits for
+     * more to be written, see {@link LogFileFollower}.  It ends only once {@link #close()} is called.
+     * @param file
+     * @param layoutPattern
+     * @param pollInterval Milliseconds between polls of an idle file
+     * @throws IOException
+     */
+    public Log4jLineIterator(File file, String layoutPattern, long pollInterval) throws IOException {
+        _iterator = new LogFileFollower(file, layoutPattern, pollInterval);
+    }
+
+    /**
+     * Standard constructor taking in a BufferedReader and layout pattern.  All constructors, except the one that follows a file, eventually lead to this one.  
      * The log file is immediately opened and the first event read, thus potentially resulting in an IOException
      * @param reader
      * @param layoutPattern
@@ -83,12 +94,11 @@ public class Log4jLineIterator implements Iterable<String> {
                 _lastLine = "";
             }
             StringBuffer buff = new StringBuffer(_lastLine);
-            Pattern linePattern = _converter.getLinePattern();
             while (_reader.ready() && !complete) {
                 String line = _reader.readLine();
                 if (line == null) {
                     complete = true;
-                } else if (linePattern.matcher(line).matches()) {
+                } else if (_converter.isEventStart(line)) {
                     // this is the next line
                     _currentLine = buff.toString();
                     _lastLine = line;
@@ -127,4 +137,13 @@ public class Log4jLineIterator implements Iterable<String> {
         return _iterator;
     }
 
+    /**
+     * Stops following the file.  Has no effect unless following.
+     */
+    public void close() {
+        if (_iterator instanceof LogFileFollower) {
+            ((LogFileFollower)_iterator).close();
+        }
+    }
+
 }
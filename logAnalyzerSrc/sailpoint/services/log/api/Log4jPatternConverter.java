@@ -1,10 +1,12 @@
 package sailpoint.services.log.api;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,11 +22,21 @@ import org.apache.commons.logging.LogFactory;
  * <br>
  * Becomes the Pattern(s):<br>
  * (\d\d:\d\d:\d\d,\d\d\d)\Q \E\s*(INFO|TRACE|DEBUG|WARN|ERROR)\Q \E(\?|[a-zA-Z0-9_$]+\.?){1,1}\Q:\E(\?|[0-9]+)\Q - \E(.*)($)<br>
+ * <br>
+ * When the layout allows it, events are not matched with that Pattern but read by a {@link CompiledLayoutParser}
+ * built from the same tokens.  The Pattern is still used for events the scanner can't read.<br>
+ * <br>
+ * Lines are tested for the start of an event by an {@link EventBoundaryFilter} before the line pattern, see
+ * {@link #isEventStart(CharSequence)}.<br>
+ * <br>
+ * Only the layout pattern is serialized, a deserialized converter is built anew from it.<br>
  * @see http://logging.apache.org/log4j/1.2/apidocs/org/apache/log4j/PatternLayout.html
  * @author trey.kirk
  *
  */
-public class Log4jPatternConverter {
+public class Log4jPatternConverter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static Log _log = LogFactory.getLog(Log4jPatternConverter.class);
 
@@ -182,6 +194,8 @@ public class Log4jPatternConverter {
     }
 
     private static final String LOG4J_IDENTIFIERS = "cCdFlLmMnprtxX";
+    // Only this many characters of a line are matched when looking for the start of an event
+    private static final int BOUNDARY_MATCH_LIMIT = 512;
     private static final int PATTERN_FLAGS = Pattern.DOTALL;
     public static final String PRIORITY_ERROR = "ERROR";
     public static final String PRIORITY_WARN = "WARN";
@@ -193,8 +207,17 @@ public class Log4jPatternConverter {
     private Pattern _linePattern; // the layout pattern converted to a full regex
     private Map<Character, GroupedPattern> _patterns; // each Pattern in map format
     private String _simpleDateFormat;
+    private CompiledDateParser _dateParser;
     private Matcher _eventMatcher;
     private String _currentEvent;
+    private CompiledLayoutParser _compiledParser; // null when the layout can only be matched by regex
+    private ParsedLogEvent _currentParsed;
+    private int[] _tokenGroups; // capture group of each identifier, indexed by the identifier character
+    private int _groupCount;
+    private EventBoundaryFilter _boundaryFilter; // null when events don't start with anything fixed
+    private Matcher _boundaryMatcher;
+    private int[] _boundaryStarts; // scratch groups when the compiled parser confirms a boundary
+    private int[] _boundaryEnds;
 
     /**
      * Standard constructor, requires a LayoutPattern as declared for Log4j
@@ -206,6 +229,27 @@ public class Log4jPatternConverter {
         parsePattern();
     }
 
+    /*
+     * Serialized form of a converter: the layout pattern is all it takes to build one
+     */
+    private static class SerializedForm implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        private String _layoutPattern;
+
+        private SerializedForm(String layoutPattern) {
+            _layoutPattern = layoutPattern;
+        }
+
+        private Object readResolve() {
+            return new Log4jPatternConverter(_layoutPattern);
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(_layoutPattern);
+    }
+
     /*
      * Appends our line pattern with the provided Pattern
      */
@@ -253,22 +297,29 @@ public class Log4jPatternConverter {
     /**
      * Extracts the Date pattern as a Date.  While no other token is parsed in this class, parsing
      * the date takes some extra work that's well suited for the {@link Log4jPatternConverter} class
+     * @see #parseDateMillis()
      */
     public Date parseDate() {
-        String dateString = parseToken(Identifier.DATE.getIdentifier());
-        if (dateString != null && _simpleDateFormat != null) {
-            SimpleDateFormat formatter = new SimpleDateFormat(_simpleDateFormat);
-            try {
-                Date d = formatter.parse(dateString);
-                _log.trace("Parsed date: " + d);
-                return d;
-            } catch (ParseException e) {
-                _log.error("Error parsing date", e);
-                e.printStackTrace();
-            }
+        long time = parseDateMillis();
+        if (time == CompiledDateParser.NO_DATE) {
+            _log.trace("Parsed date: (null)");
+            return null;
         }
-        _log.trace("Parsed date: (null)");
-        return null;
+        Date d = new Date(time);
+        _log.trace("Parsed date: " + d);
+        return d;
+    }
+
+    /**
+     * Extracts the Date pattern as epoch milliseconds.  The date token is read in place by a
+     * {@link CompiledDateParser}, no Date or String is created for the common formats.
+     * @return The time or {@link CompiledDateParser#NO_DATE} if the event has no parsable date
+     */
+    public long parseDateMillis() {
+        if (_currentParsed == null) {
+            return CompiledDateParser.NO_DATE;
+        }
+        return _currentParsed.getTime();
     }
 
     /*
@@ -496,6 +547,59 @@ public class Log4jPatternConverter {
         return _linePattern;
     }
 
+    /**
+     * Returns true if the line starts a new event.  Lines are first checked against the leading part of the layout
+     * and only those that pass are read in full: by the compiled parser when there is one, otherwise (or when it
+     * can't read the line) by the line pattern.  As the message runs to the end of the line, only the first 512
+     * characters are read.
+     * @param line A single line, without its line separator
+     * @return
+     */
+    public boolean isEventStart(CharSequence line) {
+        if (_boundaryFilter != null && !_boundaryFilter.accepts(line)) {
+            return false;
+        }
+        CharSequence start = line.length() > BOUNDARY_MATCH_LIMIT ? line.subSequence(0, BOUNDARY_MATCH_LIMIT) : line;
+        if (_compiledParser != null) {
+            if (_boundaryStarts == null) {
+                _boundaryStarts = new int[_compiledParser.getGroupCount() + 1];
+                _boundaryEnds = new int[_boundaryStarts.length];
+            }
+            if (_compiledParser.parse(start, _boundaryStarts, _boundaryEnds)) {
+                return true;
+            }
+        }
+        if (_boundaryMatcher == null) {
+            _boundaryMatcher = _linePattern.matcher(start);
+        } else {
+            _boundaryMatcher.reset(start);
+        }
+        return _boundaryMatcher.matches();
+    }
+
+    /**
+     * Returns the SimpleDateFormat the date token resolved to, or null if the layout has no date
+     * @return
+     */
+    public String getSimpleDateFormat() {
+        return _simpleDateFormat;
+    }
+
+    /**
+     * Returns true when the layout's time stamps identify the day they were logged on, meaning
+     * no correction of ambiguous time stamps is needed.
+     * @return
+     * @see AbstractTraceAspectLogAnalyzer#autoCorrectDates
+     */
+    public boolean isDateUnambiguous() {
+        if (_simpleDateFormat == null) {
+            return false;
+        }
+        // ignore quoted literals
+        String fields = _simpleDateFormat.replaceAll("'[^']*'", "");
+        return fields.indexOf('y') >= 0 && fields.indexOf('M') >= 0 && fields.indexOf('d') >= 0 && fields.indexOf('H') >= 0;
+    }
+
     /**
      * Returns the pattern associated to the identifier.  Best not to use this
      * @param identifier
@@ -583,6 +687,7 @@ public class Log4jPatternConverter {
     private void parsePattern() {
         _log.debug("Entering parsePattern");
         PatternIterator it = new PatternIterator(_layoutPattern);
+        List<CompiledLayoutParser.Field> fields = new ArrayList<CompiledLayoutParser.Field>();
         int group = 0;
         while (it.hasNext()){
             //for (String token : it) {
@@ -600,10 +705,28 @@ public class Log4jPatternConverter {
             GroupedPattern gp = new GroupedPattern(pattern, group);
             _patterns.put(identifier, gp);
             addPatternToLine(pattern);
+            fields.add(new CompiledLayoutParser.Field(identifier, qualifier, indention, trailing, group));
             indention = null; // reset
             identifier = 0;
         }
         _log.debug("Patter map: " + _patterns);
+        _groupCount = group;
+        _tokenGroups = new int[128];
+        Arrays.fill(_tokenGroups, -1);
+        for (Map.Entry<Character, GroupedPattern> entry : _patterns.entrySet()) {
+            if (entry.getKey() < _tokenGroups.length) {
+                _tokenGroups[entry.getKey()] = entry.getValue().getGroup();
+            }
+        }
+        if (_simpleDateFormat != null) {
+            _dateParser = new CompiledDateParser(_simpleDateFormat);
+        }
+        _compiledParser = CompiledLayoutParser.compile(fields, _simpleDateFormat);
+        _boundaryFilter = CompiledLayoutParser.compileBoundary(fields, _simpleDateFormat);
+        _log.debug("Boundary filter: " + _boundaryFilter);
+        if (_compiledParser == null) {
+            _log.info("Layout pattern can't be compiled, using regular expressions: " + _layoutPattern);
+        }
     }
 
     /*
@@ -630,8 +753,104 @@ public class Log4jPatternConverter {
     public void setLogEvent (String logEvent) {
         _log.trace("setLogEvent: " + logEvent);
         _currentEvent = logEvent;
-        _eventMatcher = _linePattern.matcher(_currentEvent);
-        _eventMatcher.matches();
+        _currentParsed = parse(logEvent);
+    }
+
+    /**
+     * Parses the log event into a {@link ParsedLogEvent}.  Unlike {@link #setLogEvent(String)}, the current
+     * log event isn't changed.  The event is read by the {@link CompiledLayoutParser} when possible, otherwise
+     * by the line Pattern.  An event that matches neither is still returned, see {@link ParsedLogEvent#isMatched()}.
+     * @param logEvent
+     * @return
+     */
+    public ParsedLogEvent parse (CharSequence logEvent) {
+        return parse(logEvent, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses no further than the limit into the event.  The tokens leading the event are read as usual while the
+     * message ends at the limit, only becoming a String when asked for, see {@link ParsedLogEvent#isTruncated()}.
+     * The {@link CompiledLayoutParser} reads the leading tokens in place and skips over the message, so it's handed
+     * the whole event; the line Pattern only reads up to the limit.  Nothing is copied.
+     * @param logEvent
+     * @param limit Characters of the event parsed, at most
+     * @return
+     */
+    public ParsedLogEvent parse (CharSequence logEvent, int limit) {
+        int[] starts = new int[_groupCount + 1];
+        int[] ends = new int[_groupCount + 1];
+        boolean truncated = logEvent.length() > limit;
+        CharSequence event = truncated ? bound(logEvent, limit) : logEvent;
+        boolean matched = _compiledParser != null && _compiledParser.parse(logEvent, starts, ends);
+        if (matched && truncated) {
+            for (int i = 1; i < ends.length; i++) {
+                starts[i] = Math.min(starts[i], limit);
+                ends[i] = Math.min(ends[i], limit);
+            }
+        }
+        if (!matched) {
+            if (_eventMatcher == null) {
+                _eventMatcher = _linePattern.matcher(event);
+            } else {
+                _eventMatcher.reset(event);
+            }
+            matched = _eventMatcher.matches();
+            if (matched) {
+                int groups = Math.min(_groupCount, _eventMatcher.groupCount());
+                Arrays.fill(starts, -1);
+                for (int i = 1; i <= groups; i++) {
+                    starts[i] = _eventMatcher.start(i);
+                    ends[i] = _eventMatcher.end(i);
+                }
+            }
+            // don't hold on to the event
+            _eventMatcher.reset("");
+        }
+        long time = CompiledDateParser.NO_DATE;
+        int dateGroup = _tokenGroups[Identifier.DATE.getIdentifier()];
+        if (matched && _dateParser != null && dateGroup > 0 && starts[dateGroup] >= 0) {
+            time = _dateParser.parse(logEvent, starts[dateGroup], ends[dateGroup]);
+        }
+        return new ParsedLogEvent(event, _tokenGroups, starts, ends, matched, truncated, time, _layoutPattern);
+    }
+
+    /**
+     * Parses the time stamp of the event, as {@link ParsedLogEvent#getTime()} would after {@link #parse(CharSequence)}.
+     * When the layout compiled and leads with its date, only the date is read.  Otherwise, or if the event doesn't
+     * start with a date the scanner can read, the event is parsed.
+     * @param logEvent
+     * @return The time or {@link CompiledDateParser#NO_DATE} if the event has no parsable date
+     */
+    public long parseTime(CharSequence logEvent) {
+        if (_compiledParser != null && _dateParser != null && _compiledParser.isDateLeading()) {
+            long time = _compiledParser.parseLeadingDate(logEvent, _dateParser);
+            if (time != CompiledDateParser.NO_DATE) {
+                return time;
+            }
+        }
+        return parse(logEvent).getTime();
+    }
+
+    /**
+     * Returns a view of the event ending at the limit, the event itself when it's no longer
+     * @param logEvent
+     * @param limit
+     * @return
+     */
+    public static CharSequence bound(CharSequence logEvent, int limit) {
+        if (logEvent.length() <= limit) {
+            return logEvent;
+        }
+        return new ParsedLogEvent.Token(logEvent, 0, limit);
+    }
+
+    /**
+     * Returns true if the layout pattern compiled to a {@link CompiledLayoutParser}.  Otherwise every
+     * event is matched with the line Pattern.
+     * @return
+     */
+    public boolean isCompiled() {
+        return _compiledParser != null;
     }
 
     /**
@@ -650,19 +869,7 @@ public class Log4jPatternConverter {
     }
 
     public String parseToken (char identifier) {
-        GroupedPattern gp = _patterns.get(identifier);
-        if (gp != null) {
-            try {
-                String value = _eventMatcher.group(gp.getGroup());
-                return value; //.replace(NEWLINE_SEQUENCE, "\n");
-            } catch (IllegalStateException e) {
-                _log.error("IllegalStateException when parsing token: " + identifier + ", layoutPatter=" + _layoutPattern + 
-                        "\nUsually caused by layoutPattern specifying tokens not actually present in log file!", e);
-                throw new RuntimeException(e);
-            }
-        } else {
-            return null;
-        }
+        return _currentParsed.getTokenString(identifier);
     }
 
     /**
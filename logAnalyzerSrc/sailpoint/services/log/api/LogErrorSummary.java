@@ -11,10 +11,12 @@ import java.util.Stack;
  * @author trey.kirk
  *
  */
-public class LogErrorSummary extends MethodStackAnalyzer {
+public class LogErrorSummary extends MethodStackAnalyzer implements MergeableAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
     private Map<String,Stack<String[]>> _threads;
-    private List<String> _errors;
+    private SequencedList<String> _errors;
     private int _propNameMaxLength = 10;
 
     /**
@@ -31,7 +33,11 @@ public class LogErrorSummary extends MethodStackAnalyzer {
     public LogErrorSummary(String layoutPattern) {
         super (layoutPattern);
         _threads = new HashMap<String, Stack<String[]>>();
-        _errors = new ArrayList<String>();
+        _errors = new SequencedList<String>();
+    }
+
+    public LogErrorSummary newShard() {
+        return configureShard(new LogErrorSummary(getLayoutPattern()));
     }
 
     /**
@@ -48,7 +54,8 @@ public class LogErrorSummary extends MethodStackAnalyzer {
             Map<String, Stack<String[]>> threadMap = _throwingMethods.get(thread);
             List<String> methodSig = getMethodSignature();
             String methodName = methodSig.get(0) + ":" + methodSig.get(1);
-            Stack<String[]> methodStack = threadMap.get(methodName);
+            // none when the thread's calls began before the events analyzed, as in a partition of the log
+            Stack<String[]> methodStack = threadMap != null ? threadMap.get(methodName) : null;
             StringBuffer buff = new StringBuffer();
             for (int i = 0; methodStack != null && i < methodStack.size(); i++) {
                 String[] next = methodStack.get(i);
@@ -59,17 +66,36 @@ public class LogErrorSummary extends MethodStackAnalyzer {
                 buff.append(next[1] + " )\n\n");
             }
             buff.append(logEvent + "\n\n----------------------------------------------------\n\n");
-            _errors.add(buff.toString());
+            _errors.add(getSequence(), buff.toString());
 
         } else if (isError()) {
             // It's unknown if we threw an error first and then reported the exception or the other way around.  
             // That's all driven off of implementation.  However, our isThrowing method will handle 
             // reporting our method stack.  All we do here is report the error message
-            _errors.add(logEvent + "\n\n----------------------------------------------------\n\n");
+            _errors.add(getSequence(), logEvent + "\n\n----------------------------------------------------\n\n");
         }
         return true;
     }
 
+    @Override
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        super.mergeShards(shards);
+        List<SequencedList<String>> errors = new ArrayList<SequencedList<String>>();
+        for (ShardableAnalyzer shard : shards) {
+            errors.add(((LogErrorSummary)shard)._errors);
+        }
+        _errors.merge(errors);
+    }
+
+    /**
+     * Adds the partial's errors after this summary's
+     */
+    public void merge(MergeableAnalyzer partial) {
+        LogErrorSummary summary = checkPartial(partial);
+        long first = mergePartial(summary);
+        _errors.append(summary._errors, first);
+    }
+
     /**
      * Returns a String of the pretty error messages we've built
      */
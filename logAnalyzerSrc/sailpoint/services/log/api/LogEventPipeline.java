@@ -0,0 +1,214 @@
+package sailpoint.services.log.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Feeds events to several analyzers, parsing each event only once.  Every event is parsed with the layout
+ * pattern into a {@link ParsedLogEvent} that's handed to each {@link ParsedLogAnalyzer}, so running the timer,
+ * trender and error summary together costs one parse per event rather than three.<br>
+ * <br>
+ * Analyzers that only implement {@link LogAnalyzer} are still handed the event as a String.  When fast parsing,
+ * the pipeline parses the event in place only up to its fast parse limit, see {@link #bound(String)}, and the
+ * event itself is neither trimmed nor copied.  The analyzers' own fast parse settings only apply to events added
+ * to them directly.<br>
+ * <br>
+ * {@link PrefilteredAnalyzer}s are asked first whether they need the event parsed.  Events none of the analyzers
+ * need parsed aren't parsed at all.<br>
+ * <br>
+ * Events are analyzed on the thread adding them.  See {@link ThreadedLogEventPipeline} to analyze them on
+ * threads of their own.
+ * @author trey.kirk
+ *
+ */
+public class LogEventPipeline {
+
+    private static Log _log = LogFactory.getLog(LogEventPipeline.class);
+
+    /*
+     * Hands the event to an analyzer that can't use the parse
+     */
+    private static class StringAnalyzerAdapter implements ParsedLogAnalyzer {
+
+        private LogAnalyzer _analyzer;
+
+        private StringAnalyzerAdapter(LogAnalyzer analyzer) {
+            _analyzer = analyzer;
+        }
+
+        public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent) {
+            return _analyzer.addLogEvent(logEvent);
+        }
+
+        public boolean addLogEvent(String message) {
+            return _analyzer.addLogEvent(message);
+        }
+
+        public String compileSummary() {
+            return _analyzer.compileSummary();
+        }
+
+        @Override
+        public String toString() {
+            return _analyzer.toString();
+        }
+    }
+
+    private Log4jPatternConverter _converter;
+    private List<ParsedLogAnalyzer> _analyzers;
+    private boolean _tryFast;
+    private int _fastLimit = FastLogAnalyzer.FAST_LIMIT;
+    private String _stopEvent;
+
+    /**
+     * Creates a pipeline with no analyzers
+     * @param layoutPattern Layout pattern the events are parsed with, null for {@link AbstractTraceAspectLogAnalyzer#DEFAULT_LAYOUT_PATTERN}
+     */
+    public LogEventPipeline(String layoutPattern) {
+        if (layoutPattern == null) {
+            layoutPattern = AbstractTraceAspectLogAnalyzer.DEFAULT_LAYOUT_PATTERN;
+        }
+        _converter = new Log4jPatternConverter(layoutPattern);
+        _analyzers = new ArrayList<ParsedLogAnalyzer>();
+    }
+
+    /**
+     * Creates a pipeline feeding the analyzers, in order
+     * @param layoutPattern
+     * @param analyzers
+     */
+    public LogEventPipeline(String layoutPattern, Collection<? extends LogAnalyzer> analyzers) {
+        this (layoutPattern);
+        for (LogAnalyzer analyzer : analyzers) {
+            addAnalyzer(analyzer);
+        }
+    }
+
+    /**
+     * Adds an analyzer to the end of the pipeline
+     * @param analyzer
+     */
+    public void addAnalyzer(LogAnalyzer analyzer) {
+        if (analyzer instanceof ParsedLogAnalyzer) {
+            _analyzers.add((ParsedLogAnalyzer)analyzer);
+        } else {
+            _log.debug("Adapting " + analyzer + ", events are added to it as Strings");
+            _analyzers.add(new StringAnalyzerAdapter(analyzer));
+        }
+    }
+
+    /**
+     * Parses the event and adds it to every analyzer
+     * @param logEvent
+     * @return false if any analyzer signaled it's done, same as {@link LogAnalyzer#addLogEvent(String)}
+     */
+    public boolean addLogEvent(String logEvent) {
+        CharSequence message = bound(logEvent);
+        ParsedLogEvent parsedEvent = null;
+        boolean cont = true;
+        for (ParsedLogAnalyzer analyzer : _analyzers) {
+            if (analyzer instanceof PrefilteredAnalyzer && !((PrefilteredAnalyzer)analyzer).needsParse(message)) {
+                cont = ((PrefilteredAnalyzer)analyzer).addUnparsedEvent(logEvent, message) && cont;
+                continue;
+            }
+            if (parsedEvent == null) {
+                parsedEvent = parse(logEvent);
+            }
+            cont = analyzer.addParsedEvent(logEvent, parsedEvent) && cont;
+        }
+        if (!cont) {
+            setStopEvent(logEvent);
+        }
+        return cont;
+    }
+
+    /**
+     * Parses the event as it's handed to the analyzers
+     * @param logEvent
+     * @return
+     */
+    protected ParsedLogEvent parse(String logEvent) {
+        return _converter.parse(logEvent, getParseLimit());
+    }
+
+    /**
+     * Returns the event as far as it's parsed, a view of its start when fast parsing
+     * @param logEvent
+     * @return
+     */
+    protected CharSequence bound(String logEvent) {
+        return Log4jPatternConverter.bound(logEvent, getParseLimit());
+    }
+
+    private int getParseLimit() {
+        return _tryFast ? _fastLimit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if any analyzer needs the event parsed, see {@link PrefilteredAnalyzer#needsParse(CharSequence)}
+     * @param message The event as far as it's parsed
+     * @return
+     */
+    protected boolean isParseNeeded(CharSequence message) {
+        for (ParsedLogAnalyzer analyzer : _analyzers) {
+            if (!(analyzer instanceof PrefilteredAnalyzer) || ((PrefilteredAnalyzer)analyzer).needsParse(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the analyzers, in order
+     * @return
+     */
+    protected List<ParsedLogAnalyzer> getAnalyzers() {
+        return _analyzers;
+    }
+
+    /**
+     * Records the event an analyzer signaled it's done on, the first one recorded is kept
+     * @param logEvent
+     */
+    protected synchronized void setStopEvent(String logEvent) {
+        if (_stopEvent == null) {
+            _stopEvent = logEvent;
+        }
+    }
+
+    /**
+     * Returns the event an analyzer signaled it's done on, null if none has
+     * @return
+     */
+    public synchronized String getStopEvent() {
+        return _stopEvent;
+    }
+
+    /**
+     * Signals no more events will be added.  Every event added has been analyzed once this returns.
+     */
+    public void close() {
+        // analyzed as they're added
+    }
+
+    /**
+     * Parses events only up to a character limit, see {@link FastLogAnalyzer#setDoFast(boolean)}
+     * @param tryFast
+     */
+    public void setDoFast(boolean tryFast) {
+        _tryFast = tryFast;
+    }
+
+    /**
+     * Sets the number of characters of an event parsed when fast parsing
+     * @param fastParseLimit
+     */
+    public void setFastParseCharacterLimit(int fastParseLimit) {
+        _fastLimit = fastParseLimit;
+    }
+
+}
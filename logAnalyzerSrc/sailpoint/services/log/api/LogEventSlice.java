@@ -0,0 +1,132 @@
+package sailpoint.services.log.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A log event represented as a range of bytes within a (usually memory mapped) buffer.  No characters are decoded
+ * until {@link #toString()} is called, which allows a reader to find event boundaries and hand events downstream
+ * without copying them.<br>
+ * <br>
+ * As a {@link CharSequence}, each byte is presented as a single character (ISO-8859-1).  That is exactly right
+ * for the ASCII portions of a log4j event (date, priority, thread, category, etc.) and is what boundary and
+ * token matching operate on.  Use {@link #toString()} to get the event properly decoded with the file's
+ * character set.
+ * @author trey.kirk
+ *
+ */
+public class LogEventSlice implements CharSequence {
+
+    private final ByteBuffer _buffer;
+    private final int _start;
+    private final int _end;
+    private final long _fileOffset;
+    private final long _nextEventOffset;
+    private final Charset _charset;
+    private final File _file;
+    private String _decoded;
+
+    /**
+     * Creates a slice over the buffer from start (inclusive) to end (exclusive)
+     * @param file The file the bytes came from.  May be null.
+     * @param buffer Buffer containing the bytes.  The buffer's position and limit are never modified.
+     * @param start Start index within the buffer
+     * @param end End index within the buffer
+     * @param fileOffset Offset in the file of the byte at buffer index 'start'
+     * @param nextEventOffset Offset in the file just past this event's trailing line separator
+     * @param charset Character set used to decode the event
+     */
+    public LogEventSlice(File file, ByteBuffer buffer, int start, int end, long fileOffset, long nextEventOffset, Charset charset) {
+        _file = file;
+        _buffer = buffer;
+        _start = start;
+        _end = end;
+        _fileOffset = fileOffset;
+        _nextEventOffset = nextEventOffset;
+        _charset = charset;
+    }
+
+    public int length() {
+        return _end - _start;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index: " + index + ", length: " + length());
+        }
+        return (char)(_buffer.get(_start + index) & 0xff);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length());
+        }
+        return new LogEventSlice(_file, _buffer, _start + start, _start + end, _fileOffset + start, _fileOffset + end, _charset);
+    }
+
+    /**
+     * Returns the file the event was read from
+     * @return
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the offset in the file of the first byte of this event
+     * @return
+     */
+    public long getFileOffset() {
+        return _fileOffset;
+    }
+
+    /**
+     * Returns the offset in the file where the following event (or end of file) begins.  This is the
+     * offset to resume reading from once this event has been processed.
+     * @return
+     */
+    public long getNextEventOffset() {
+        return _nextEventOffset;
+    }
+
+    /**
+     * Returns a copy of the raw bytes of this event
+     * @return
+     */
+    public byte[] getBytes() {
+        byte[] bytes = new byte[length()];
+        ByteBuffer view = _buffer.duplicate();
+        view.position(_start);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the raw bytes of the event to the stream without decoding them
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(getBytes());
+    }
+
+    /**
+     * Decodes the event.  Multi-line events are joined with '\n' as {@link java.io.BufferedReader#readLine()}
+     * would have done, so '\r\n' separated logs produce the same text as they always have.
+     */
+    @Override
+    public String toString() {
+        if (_decoded == null) {
+            String decoded = new String(getBytes(), _charset);
+            if (decoded.indexOf('\r') >= 0) {
+                decoded = decoded.replace("\r\n", "\n");
+            }
+            _decoded = decoded;
+        }
+        return _decoded;
+    }
+
+}
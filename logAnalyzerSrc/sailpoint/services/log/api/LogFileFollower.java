@@ -0,0 +1,275 @@
+package sailpoint.services.log.api;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Follows a log file as it grows, much like "tail -F".  The file is read from the beginning and then polled for
+ * appended bytes; {@link #hasNext()} blocks until the next event is complete or the follower is closed.  Only the
+ * bytes appended since the last poll are read, however large the file has grown.<br>
+ * <br>
+ * An event is complete once the line starting the next event has been read, so the newest event of the file is
+ * held, along with any partial line, until more is written.  Log4j rollover is detected when the file name refers
+ * to a new file (or the file shrinks, as with copy and truncate): what's left of the old file is read, its last
+ * event is released and the new file is followed from its beginning.  Platforms that don't report file keys only
+ * detect a rollover once the new file is smaller than what had been read of the old one.
+ * @author trey.kirk
+ *
+ */
+public class LogFileFollower implements Iterator<String> {
+
+    private static Log _log = LogFactory.getLog(LogFileFollower.class);
+
+    /**
+     * Default milliseconds between polls of an idle file
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private File _file;
+    private Log4jPatternConverter _converter;
+    private Charset _charset;
+    private long _pollInterval;
+
+    private FileChannel _channel;
+    private Object _fileKey;
+    private long _position;
+    private ByteBuffer _buffer;
+
+    // bytes of the line being read
+    private byte[] _line;
+    private int _lineLength;
+    // the event still being read
+    private StringBuilder _openEvent;
+    private LinkedList<String> _events;
+    private volatile boolean _closed;
+
+    /**
+     * Follows the file, polling once a second
+     * @param file
+     * @param layoutPattern
+     * @throws IOException
+     */
+    public LogFileFollower(File file, String layoutPattern) throws IOException {
+        this (file, layoutPattern, DEFAULT_POLL_INTERVAL);
+    }
+
+    /**
+     * Full constructor.  The file is opened immediately, thus potentially resulting in an IOException
+     * @param file
+     * @param layoutPattern
+     * @param pollInterval Milliseconds between polls of an idle file
+     * @throws IOException
+     */
+    public LogFileFollower(File file, String layoutPattern, long pollInterval) throws IOException {
+        if (layoutPattern == null) {
+            throw new NullPointerException ("Layout pattern cannot be null.");
+        }
+        if (pollInterval < 1) {
+            throw new IllegalArgumentException("Poll interval must be at least 1: " + pollInterval);
+        }
+        _file = file;
+        _converter = new Log4jPatternConverter(layoutPattern);
+        _charset = Charset.defaultCharset();
+        _pollInterval = pollInterval;
+        _buffer = ByteBuffer.allocate(READ_BUFFER);
+        _line = new byte[256];
+        _events = new LinkedList<String>();
+        open();
+    }
+
+    /*
+     * Opens the file from its beginning, nothing changes if it can't be
+     */
+    private void open() throws IOException {
+        // the key is read first: should the file be replaced in between, it's read again rather than missed
+        Object fileKey = getFileKey();
+        _channel = new RandomAccessFile(_file, "r").getChannel();
+        _fileKey = fileKey;
+        _position = 0;
+        _log.debug("Following " + _file + ", key: " + _fileKey);
+    }
+
+    private Object getFileKey() {
+        try {
+            return Files.readAttributes(_file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            // gone for the moment
+            return null;
+        }
+    }
+
+    /*
+     * Reads what's been appended, false when there was nothing
+     */
+    private boolean read() throws IOException {
+        _buffer.clear();
+        int read = _channel.read(_buffer);
+        if (read <= 0) {
+            return false;
+        }
+        _position += read;
+        byte[] bytes = _buffer.array();
+        int start = 0;
+        for (int i = 0; i < read; i++) {
+            if (bytes[i] == '\n') {
+                appendLine(bytes, start, i);
+                endLine();
+                start = i + 1;
+            }
+        }
+        appendLine(bytes, start, read);
+        return true;
+    }
+
+    private void appendLine(byte[] bytes, int start, int end) {
+        int length = end - start;
+        if (_lineLength + length > _line.length) {
+            _line = Arrays.copyOf(_line, Math.max(_line.length * 2, _lineLength + length));
+        }
+        System.arraycopy(bytes, start, _line, _lineLength, length);
+        _lineLength += length;
+    }
+
+    private void endLine() {
+        int length = _lineLength;
+        if (length > 0 && _line[length - 1] == '\r') {
+            length--;
+        }
+        String line = new String(_line, 0, length, _charset);
+        _lineLength = 0;
+        if (_converter.isEventStart(line)) {
+            if (_openEvent != null) {
+                _events.add(_openEvent.toString());
+            }
+            _openEvent = new StringBuilder(line);
+        } else if (_openEvent != null) {
+            // multi-line event, keep appending
+            _openEvent.append('\n').append(line);
+        }
+        // else the tail of an event that started before we did
+    }
+
+    /*
+     * The file is done, whatever's left is the last event
+     */
+    private void endFile() {
+        if (_lineLength > 0) {
+            endLine();
+        }
+        if (_openEvent != null) {
+            _events.add(_openEvent.toString());
+            _openEvent = null;
+        }
+    }
+
+    /*
+     * Moves to the new file when the log's been rolled over, true if it was.  Should the new file be gone again
+     * before it's opened, the old one is kept and the rollover is retried on the next poll.
+     */
+    private boolean checkRollover() throws IOException {
+        if (!_file.exists()) {
+            // renamed, the new file isn't there yet
+            return false;
+        }
+        Object fileKey = getFileKey();
+        boolean replaced = fileKey != null && _fileKey != null && !fileKey.equals(_fileKey);
+        boolean truncated = _file.length() < _position;
+        if (!replaced && !truncated) {
+            return false;
+        }
+        long position = _position;
+        if (replaced) {
+            // anything written to the old file before it was renamed
+            while (read()) {
+            }
+        }
+        FileChannel old = _channel;
+        try {
+            open();
+        } catch (FileNotFoundException e) {
+            _log.debug(_file + " is gone again, retrying: " + e.getMessage());
+            return false;
+        }
+        _log.info(_file + (replaced ? " rolled over" : " truncated") + " after " + position + " bytes");
+        endFile();
+        old.close();
+        return true;
+    }
+
+    /**
+     * Waits for the next event.  Returns false only once the follower has been closed.
+     */
+    public boolean hasNext() {
+        try {
+            while (_events.isEmpty() && !_closed) {
+                if (!read() && !checkRollover()) {
+                    Thread.sleep(_pollInterval);
+                }
+            }
+        } catch (InterruptedException e) {
+            _log.debug("Following " + _file + " interrupted");
+            Thread.currentThread().interrupt();
+            _closed = true;
+        } catch (IOException e) {
+            _closed = true;
+            throw new RuntimeException("Error following " + _file, e);
+        } finally {
+            if (_closed) {
+                closeChannel();
+            }
+        }
+        return !_events.isEmpty();
+    }
+
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return _events.removeFirst();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private void closeChannel() {
+        try {
+            _channel.close();
+        } catch (IOException e) {
+            _log.warn("Error closing " + _file, e);
+        }
+    }
+
+    /**
+     * Stops following.  Safe to call from any thread; the file is closed by the reading thread once it
+     * wakes, and events already complete are still returned.
+     */
+    public void close() {
+        _closed = true;
+    }
+
+    /**
+     * Returns the file being followed
+     * @return
+     */
+    public File getFile() {
+        return _file;
+    }
+
+}
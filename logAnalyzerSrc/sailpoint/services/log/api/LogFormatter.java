@@ -1,5 +1,6 @@
 package sailpoint.services.log.api;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -11,14 +12,21 @@ import java.util.regex.Pattern;
  * @author trey.kirk
  *
  */
-public class LogFormatter extends MethodStackAnalyzer {
+public class LogFormatter extends MethodStackAnalyzer implements StreamingAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
     private static final String INDENT = "   ";
-    private List<String> _msgs;
+    private SequencedList<String> _msgs;
+    private transient Writer _output;
 
     public LogFormatter(String layoutPattern) {
         super(layoutPattern);
-        _msgs = new ArrayList<String>();
+        _msgs = new SequencedList<String>();
+    }
+
+    public LogFormatter newShard() {
+        return configureShard(new LogFormatter(getLayoutPattern()));
     }
 
     @Override
@@ -38,10 +46,32 @@ public class LogFormatter extends MethodStackAnalyzer {
             msg.append(INDENT);
         }
         msg.append(logEvent);
-        _msgs.add(msg.toString());
+        if (_output != null) {
+            writeEvent(_output, msg.toString());
+        } else {
+            _msgs.add(getSequence(), msg.toString());
+        }
         return true;
     }
 
+    public void setOutput(Writer out) {
+        _output = out;
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
+    @Override
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        super.mergeShards(shards);
+        List<SequencedList<String>> msgs = new ArrayList<SequencedList<String>>();
+        for (ShardableAnalyzer shard : shards) {
+            msgs.add(((LogFormatter)shard)._msgs);
+        }
+        _msgs.merge(msgs);
+    }
+
     public String compileSummary() {
         StringBuffer summary = new StringBuffer();
         for (String msg : _msgs) {
@@ -1,50 +1,265 @@
 package sailpoint.services.log.api;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.PriorityQueue;
 
-public class LogMerger extends FastLogAnalyzer {
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
-    private HashMap<Date, List<String>> _eventMap;
-    private Log4jPatternConverter _converter;
+/**
+ * Merges the events of several logs into time stamp order.  Events with the same time stamp, or none, keep the
+ * order they were added in; those without a time stamp come first.<br>
+ * <br>
+ * Events are held in memory up to a budget.  Past it, they're sorted and spilled to a temporary file as a run and
+ * the summary merges the runs back together, written a bit at a time with {@link #writeSummary(Writer)}.  Merging
+ * a week of logs from a cluster then takes no more memory than the budget.  A merger that has spilled can't be
+ * saved to a checkpoint.
+ * @author trey.kirk
+ *
+ */
+public class LogMerger extends FastLogAnalyzer implements WritableSummary {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Log _log = LogFactory.getLog(LogMerger.class);
+
+    /**
+     * Memory held by events before they're spilled, when none is given
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    // rough memory of an event besides its characters
+    private static final int EVENT_OVERHEAD = 64;
+
+    // events merged from the runs are read through buffers of this size
+    private static final int RUN_BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * An event along with what it's sorted by
+     */
+    private static class MergeEvent implements Serializable {
 
+        private static final long serialVersionUID = 1L;
+
+        private long _time;
+        private long _sequence;
+        private String _event;
+
+        private MergeEvent(long time, long sequence, String event) {
+            _time = time;
+            _sequence = sequence;
+            _event = event;
+        }
+    }
+
+    private static final Comparator<MergeEvent> EVENT_ORDER = new Comparator<MergeEvent>() {
+        public int compare(MergeEvent e1, MergeEvent e2) {
+            if (e1._time != e2._time) {
+                return e1._time < e2._time ? -1 : 1;
+            }
+            return e1._sequence < e2._sequence ? -1 : (e1._sequence == e2._sequence ? 0 : 1);
+        }
+    };
+
+    /*
+     * Reads back a run spilled to a file: the time stamp, sequence, length and UTF-8 bytes of each event
+     */
+    private static class RunReader {
+        private DataInputStream _in;
+        private MergeEvent _next;
+
+        private RunReader(File run) throws IOException {
+            _in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), RUN_BUFFER_SIZE));
+            advance();
+        }
+
+        private void advance() throws IOException {
+            long time;
+            try {
+                time = _in.readLong();
+            } catch (EOFException e) {
+                _next = null;
+                _in.close();
+                return;
+            }
+            long sequence = _in.readLong();
+            byte[] bytes = new byte[_in.readInt()];
+            _in.readFully(bytes);
+            _next = new MergeEvent(time, sequence, new String(bytes, "UTF-8"));
+        }
+
+        private void close() throws IOException {
+            _in.close();
+        }
+    }
+
+    private List<MergeEvent> _events;
+    private long _memory;
+    private long _memoryBudget;
+    private File _tempDirectory;
+    private long _sequence;
+    private transient List<File> _runs;
+    private Log4jPatternConverter _converter;
 
+    /**
+     * Creates a merger holding up to {@link #DEFAULT_MEMORY_BUDGET} of events before spilling them to the
+     * default temporary directory
+     * @param layoutPattern
+     */
     public LogMerger(String layoutPattern) {
+        this (layoutPattern, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * @param layoutPattern
+     * @param memoryBudget Bytes of events held in memory before they're spilled
+     * @param tempDirectory Where runs are spilled, null for the default temporary directory
+     */
+    public LogMerger(String layoutPattern, long memoryBudget, File tempDirectory) {
         super();
-        _eventMap = new HashMap<Date, List<String>>();
+        _events = new ArrayList<MergeEvent>();
+        _memoryBudget = memoryBudget;
+        _tempDirectory = tempDirectory;
+        _runs = new ArrayList<File>();
         _converter = new Log4jPatternConverter(layoutPattern);
     }
-    
+
     @Override
     public boolean addLogEvent(String logEvent) {
-        String trimmedMessage = trimmedMessage(logEvent);
-        _converter.setLogEvent(trimmedMessage);
-        Date theDate = _converter.parseDate();
-        List<String> events = _eventMap.get(theDate);
-        if (events == null) {
-            events = new ArrayList<String>();
-            _eventMap.put(theDate, events);
-        }
-        events.add(logEvent);
+        return addParsedEvent(logEvent, parse(_converter, logEvent));
+    }
+
+    @Override
+    public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent) {
+        _events.add(new MergeEvent(parsedEvent.getTime(), _sequence++, logEvent));
+        _memory += logEvent.length() * 2 + EVENT_OVERHEAD;
+        if (_memory > _memoryBudget) {
+            spill();
+        }
         return true;
     }
-    
-    
+
+    /*
+     * Sorts the events held and writes them to a new run
+     */
+    private void spill() {
+        Collections.sort(_events, EVENT_ORDER);
+        try {
+            File run = File.createTempFile("logmerge", ".run", _tempDirectory);
+            run.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), RUN_BUFFER_SIZE));
+            try {
+                for (MergeEvent event : _events) {
+                    byte[] bytes = event._event.getBytes("UTF-8");
+                    out.writeLong(event._time);
+                    out.writeLong(event._sequence);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            } finally {
+                out.close();
+            }
+            if (_runs == null) {
+                _runs = new ArrayList<File>();
+            }
+            _runs.add(run);
+            _log.debug("Spilled " + _events.size() + " events to " + run + ", " + run.length() + " bytes");
+        } catch (IOException e) {
+            throw new RuntimeException("Error spilling events to " + (_tempDirectory != null ? _tempDirectory : "the temporary directory"), e);
+        }
+        _events = new ArrayList<MergeEvent>();
+        _memory = 0;
+    }
+
+    /**
+     * Writes the events in time stamp order, merging the spilled runs with the events still held
+     */
+    public void writeSummary(Writer out) throws IOException {
+        Collections.sort(_events, EVENT_ORDER);
+        if (_runs == null || _runs.isEmpty()) {
+            for (MergeEvent event : _events) {
+                out.write(event._event);
+                out.write('\n');
+            }
+            return;
+        }
+        final List<RunReader> readers = new ArrayList<RunReader>();
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(_runs.size() + 1, new Comparator<RunReader>() {
+                public int compare(RunReader r1, RunReader r2) {
+                    return EVENT_ORDER.compare(r1._next, r2._next);
+                }
+            });
+            for (File run : _runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader._next != null) {
+                    queue.add(reader);
+                }
+            }
+            int held = 0;
+            while (!queue.isEmpty() || held < _events.size()) {
+                MergeEvent next;
+                if (held < _events.size() && (queue.isEmpty() || EVENT_ORDER.compare(_events.get(held), queue.peek()._next) < 0)) {
+                    next = _events.get(held++);
+                } else {
+                    RunReader reader = queue.poll();
+                    next = reader._next;
+                    reader.advance();
+                    if (reader._next != null) {
+                        queue.add(reader);
+                    }
+                }
+                out.write(next._event);
+                out.write('\n');
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the merged events.  Once events have been spilled, {@link #writeSummary(Writer)} should be used
+     * instead, as the merged events may not fit in memory.
+     */
     @Override
     public String compileSummary() {
-        Set<Date> orderedDates = new TreeSet<Date>(_eventMap.keySet());
-        StringBuilder mergedEvents = new StringBuilder();
-        for (Date key : orderedDates) {
-            List<String> events = _eventMap.get(key);
-            for (String event : events) {
-                mergedEvents.append(event).append("\n");
-            }
+        StringWriter mergedEvents = new StringWriter();
+        try {
+            writeSummary(mergedEvents);
+        } catch (IOException e) {
+            throw new RuntimeException("Error merging events", e);
         }
         return mergedEvents.toString();
     }
 
+    /*
+     * Runs are temporary files of this JVM, another one couldn't read them
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        if (_runs != null && !_runs.isEmpty()) {
+            throw new NotSerializableException("A merger that has spilled events can't be saved");
+        }
+        out.defaultWriteObject();
+    }
+
 }
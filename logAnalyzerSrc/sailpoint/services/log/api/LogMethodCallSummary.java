@@ -1,6 +1,9 @@
 package sailpoint.services.log.api;
 
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,17 +12,43 @@ import java.util.Stack;
 /**
  * Summarizes a method's call stack.  This is similar to what {@link LogErrorSummary} does
  * for ERROR log events, but instead will summarize the call stack for a method at the time
- * the 'Entering' log event is parsed.
+ * the 'Entering' log event is parsed.  The 'Exiting' log event of the method is appended to the summary of
+ * the last call made on the same thread.<br>
+ * <br>
+ * When streaming, each call is written once its 'Exiting' event is seen, or once the thread calls the method
+ * again without having exited.  Calls still open at the end are left for {@link #compileSummary()}.
  * @author trey.kirk
  *
  */
-public class LogMethodCallSummary extends MethodStackAnalyzer {
+public class LogMethodCallSummary extends MethodStackAnalyzer implements StreamingAnalyzer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String SEPARATOR = "\n\n----------------------------------------------------\n\n";
+
+    /*
+     * A call not yet written to the output
+     */
+    private static class PendingCall {
+        private long _sequence;
+        private String _summary;
+
+        private PendingCall(long sequence, String summary) {
+            _sequence = sequence;
+            _summary = summary;
+        }
+    }
 
     private Map<String,Stack<String[]>> _threads;
-    private Stack<String> _methods;
+    private SequencedList<String> _methods;
+    // each thread's last call of the method, by its index in _methods
+    private Map<String, Integer> _lastMethods;
     private int _propNameMaxLength = 10;
     private String _targetClass;
     private String _targetMethod;
+    private transient Writer _output;
+    // each thread's call not yet written, when streaming
+    private transient Map<String, PendingCall> _pending;
 
     /**
      * Default constructor uses a default layout pattern
@@ -31,12 +60,17 @@ public class LogMethodCallSummary extends MethodStackAnalyzer {
     public LogMethodCallSummary(String layoutPattern, String className, String methodName) {
         super (layoutPattern);
         _threads = new HashMap<String, Stack<String[]>>();
-        _methods = new Stack<String>();
+        _methods = new SequencedList<String>();
+        _lastMethods = new HashMap<String, Integer>();
         _targetClass = className;
         _targetMethod = methodName;
 
     }
 
+    public LogMethodCallSummary newShard() {
+        return configureShard(new LogMethodCallSummary(getLayoutPattern(), _targetClass, _targetMethod));
+    }
+
     /**
      * For each log event, test if has an 'Entering' value and capture the method signature information.  Otherwise, test
      * if it is an ERROR and create the summary information for that error.
@@ -79,7 +113,16 @@ public class LogMethodCallSummary extends MethodStackAnalyzer {
                 }
                 buff.append(logEvent + "\n\n");
                 //buff.append(logEvent + "\n\n----------------------------------------------------\n\n");
-                _methods.push(buff.toString());
+                if (_output != null) {
+                    PendingCall last = _pending.put(thread, new PendingCall(getSequence(), buff.toString()));
+                    if (last != null) {
+                        // called again before exiting, write it as it is
+                        writeEvent(_output, last._summary);
+                    }
+                } else {
+                    _lastMethods.put(thread, _methods.size());
+                    _methods.add(getSequence(), buff.toString());
+                }
             }
         } else if (isExiting()) {
             List<String> methodSig = getMethodSignature();
@@ -103,23 +146,71 @@ public class LogMethodCallSummary extends MethodStackAnalyzer {
                 }
             }
             // new: now I want to see how the method returns!
-            if (methodTest && classTest && match && !_methods.isEmpty()) {
-                StringBuffer lastMethodBuff = new StringBuffer(_methods.pop());
-                lastMethodBuff.append(logEvent + "\n\n----------------------------------------------------\n\n");
-                _methods.push(lastMethodBuff.toString());
+            if (_output != null) {
+                if (methodTest && classTest && match) {
+                    PendingCall last = _pending.remove(thread);
+                    writeEvent(_output, (last != null ? last._summary : "") + logEvent + SEPARATOR);
+                }
+                return true;
+            }
+            Integer lastMethod = _lastMethods.get(thread);
+            if (methodTest && classTest && match && lastMethod != null) {
+                StringBuffer lastMethodBuff = new StringBuffer(_methods.get(lastMethod));
+                lastMethodBuff.append(logEvent + SEPARATOR);
+                _methods.set(lastMethod, lastMethodBuff.toString());
             }
         }
         return true;
     }
 
     /**
-     * Returns a String of the pretty method signatures we've built
+     * Merges the summaries of the shards.  Exits logged after the merge no longer find the calls they
+     * belong to, merge once every event has been analyzed.
+     */
+    @Override
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        super.mergeShards(shards);
+        List<SequencedList<String>> methods = new ArrayList<SequencedList<String>>();
+        for (ShardableAnalyzer shard : shards) {
+            LogMethodCallSummary summary = (LogMethodCallSummary)shard;
+            _threads.putAll(summary._threads);
+            methods.add(summary._methods);
+        }
+        _methods.merge(methods);
+        _lastMethods.clear();
+    }
+
+    public void setOutput(Writer out) {
+        _output = out;
+        if (_output != null && _pending == null) {
+            _pending = new HashMap<String, PendingCall>();
+        }
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
+    /**
+     * Returns a String of the pretty method signatures we've built.  When streaming, only the calls
+     * not yet written are returned, in the order they were made.
      */
     public String compileSummary() {
         StringBuffer out = new StringBuffer();
         for (String nextError : _methods) {
             out.append(nextError + "\n");
         }
+        if (_pending != null) {
+            List<PendingCall> pending = new ArrayList<PendingCall>(_pending.values());
+            Collections.sort(pending, new Comparator<PendingCall>() {
+                public int compare(PendingCall o1, PendingCall o2) {
+                    return o1._sequence < o2._sequence ? -1 : (o1._sequence == o2._sequence ? 0 : 1);
+                }
+            });
+            for (PendingCall call : pending) {
+                out.append(call._summary + "\n");
+            }
+        }
         return out.toString();
     }
 
@@ -0,0 +1,162 @@
+package sailpoint.services.log.api;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A single log to be read: a plain file, a gzip'd file (.gz) or one member of a zip archive (.zip).  Compressed
+ * logs are inflated as they're read, nothing is written to disk.
+ * @author trey.kirk
+ *
+ */
+public class LogSource {
+
+    /**
+     * Suffix of gzip'd logs
+     */
+    public static final String SUFFIX_GZIP = ".gz";
+
+    /**
+     * Suffix of zip archives
+     */
+    public static final String SUFFIX_ZIP = ".zip";
+
+    private static final int INFLATE_BUFFER = 64 * 1024;
+
+    private File _file;
+    private String _entryName;
+
+    private LogSource(File file, String entryName) {
+        _file = file;
+        _entryName = entryName;
+    }
+
+    /**
+     * Returns the logs contained by the file: the file itself, unless it's a zip archive in which case
+     * each file it contains, in archive order.
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static List<LogSource> expand(File file) throws IOException {
+        List<LogSource> sources = new ArrayList<LogSource>();
+        if (isZip(file.getName())) {
+            ZipFile zip = new ZipFile(file);
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    if (!entry.isDirectory()) {
+                        sources.add(new LogSource(file, entry.getName()));
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        } else {
+            sources.add(new LogSource(file, null));
+        }
+        return sources;
+    }
+
+    /**
+     * Returns true if the file name has a compression suffix this class can read
+     * @param fileName
+     * @return
+     */
+    public static boolean isCompressed(String fileName) {
+        return isGzip(fileName) || isZip(fileName);
+    }
+
+    /**
+     * Returns the file name without its compression suffix
+     * @param fileName
+     * @return
+     */
+    public static String stripCompressionSuffix(String fileName) {
+        if (isGzip(fileName)) {
+            return fileName.substring(0, fileName.length() - SUFFIX_GZIP.length());
+        } else if (isZip(fileName)) {
+            return fileName.substring(0, fileName.length() - SUFFIX_ZIP.length());
+        }
+        return fileName;
+    }
+
+    private static boolean isGzip(String fileName) {
+        return fileName.toLowerCase().endsWith(SUFFIX_GZIP);
+    }
+
+    private static boolean isZip(String fileName) {
+        return fileName.toLowerCase().endsWith(SUFFIX_ZIP);
+    }
+
+    /**
+     * Returns true if the log must be inflated to be read
+     * @return
+     */
+    public boolean isCompressed() {
+        return isCompressed(_file.getName());
+    }
+
+    /**
+     * Returns the file containing the log
+     * @return
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the name of the zip archive member, or null when the log is the file itself
+     * @return
+     */
+    public String getEntryName() {
+        return _entryName;
+    }
+
+    /**
+     * Opens the log, inflating it if needed
+     * @return
+     * @throws IOException
+     */
+    public InputStream open() throws IOException {
+        if (_entryName != null) {
+            final ZipFile zip = new ZipFile(_file);
+            ZipEntry entry = zip.getEntry(_entryName);
+            if (entry == null) {
+                zip.close();
+                throw new IOException(_entryName + " not found in " + _file);
+            }
+            // closing the member closes the archive
+            return new FilterInputStream(zip.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } else if (isGzip(_file.getName())) {
+            return new GZIPInputStream(new BufferedInputStream(new FileInputStream(_file), INFLATE_BUFFER), INFLATE_BUFFER);
+        }
+        return new FileInputStream(_file);
+    }
+
+    @Override
+    public String toString() {
+        return _entryName == null ? _file.toString() : _file + "!" + _entryName;
+    }
+
+}
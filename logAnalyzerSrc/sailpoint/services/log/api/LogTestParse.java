@@ -12,6 +12,8 @@ import java.util.Map;
  *
  */
 public class LogTestParse extends AbstractTraceAspectLogAnalyzer {
+
+    private static final long serialVersionUID = 1L;
     
     private static final int MAX_EVENTS = 5;
     private int _events;
@@ -2,9 +2,10 @@ package sailpoint.services.log.api;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,16 +17,24 @@ import com.biliruben.util.csv.CSVUtil;
 
 /**
  * Concrete implementation of {@link AbstractTraceAspectLogAnalyzer}.  This class
- * aggregates timing information and provides method timing for all methods found.
+ * aggregates timing information and provides method timing for all methods found.  Timers are kept
+ * per thread, so the timer may be sharded by thread, see {@link ShardableAnalyzer}, and the timers of
+ * separate partitions of a log merged, see {@link MergeableAnalyzer}.  Durations are counted in a
+ * {@link LatencyHistogram} per thread and method, reported as percentiles along with the exact count, total,
+ * shortest and longest.
  * @author trey.kirk
  */
-public class LogTimer extends AbstractTraceAspectLogAnalyzer {
+public class LogTimer extends AbstractTraceAspectLogAnalyzer implements ShardableAnalyzer, MergeableAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
 
     /*
      * Inner class used to store and calculate method timings
      */
-    private static class MethodTimer {
+    private static class MethodTimer implements Serializable {
+
+        private static final long serialVersionUID = 2L;
         private static final String MAP_TOTAL = "total";
         private static final String MAP_CALLS = "calls";
         private static final String MAP_LONGEST = "longest";
@@ -34,19 +43,26 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
         private static final String MAP_METHOD = "method";
         private static final String MAP_THREAD = "thread";
         private static final String MAP_CALL_ORDER = "order";
+        private static final String MAP_P50 = "p50";
+        private static final String MAP_P90 = "p90";
+        private static final String MAP_P99 = "p99";
+        private static final String MAP_P999 = "p99.9";
         String _method;
-        List<Long> _durations;
+        LatencyHistogram _durations;
         private String _thread;
         private int _order;
+        // sequence of the event the timer was created for
+        private long _sequence;
 
         /*
          * Single Constructor takes in all relevant initial tidbits
          */
-        private MethodTimer(String thread, String method, int order) {
+        private MethodTimer(String thread, String method, int order, long sequence) {
             _method = method;
             _thread = thread;
-            _durations = new ArrayList<Long>();
+            _durations = new LatencyHistogram();
             _order = order;
+            _sequence = sequence;
         }
 
         public String getMethod() {
@@ -58,39 +74,31 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
         }
 
         /*
-         * Durations are simply a list of elapsed durations per call.  This list is then
-         * ordered and averaged.  At some later time, one may incorporate additional statistical
-         * analytics to this list.
+         * Durations are counted in a histogram rather than kept, so memory doesn't grow with the calls of
+         * hot methods.  The shortest, longest and total are still exact.
          */
         private void addDuration(long duration) {
-            _durations.add(duration);
-        }
-
-        private Long[] getSortedDuruations() {
-            Long[] longArry = _durations.toArray(new Long[0]);
-            Arrays.sort(longArry);
-            return longArry;
+            _durations.record(duration);
         }
 
         private long getShortest() {
-            return getSortedDuruations()[0];
+            return _durations.getMin();
         }
 
         private long getLongest() {
-            Long[] sorted = getSortedDuruations();
-            return sorted[sorted.length - 1];
+            return _durations.getMax();
         }
 
         private long getCalls() {
-            return _durations.size();
+            return _durations.getCount();
         }
 
         private double getAverage() {
-            if (_durations.size() == 0) {
+            if (_durations.getCount() == 0) {
                 return 0;
             }
 
-            return getTotal() / _durations.size();
+            return getTotal() / _durations.getCount();
         }
 
         /*
@@ -106,6 +114,10 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
             m.put(MAP_LONGEST, String.valueOf(getLongest()));
             m.put(MAP_CALLS, String.valueOf(getCalls()));
             m.put(MAP_TOTAL, String.valueOf(getTotal()));
+            m.put(MAP_P50, String.valueOf(_durations.getValueAtPercentile(50)));
+            m.put(MAP_P90, String.valueOf(_durations.getValueAtPercentile(90)));
+            m.put(MAP_P99, String.valueOf(_durations.getValueAtPercentile(99)));
+            m.put(MAP_P999, String.valueOf(_durations.getValueAtPercentile(99.9)));
 
             return m;
         }
@@ -119,11 +131,7 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
         }
 
         private long getTotal() {
-            long sum = 0;
-            for (Long l : _durations) {
-                sum = sum + l;
-            }
-            return sum;
+            return _durations.getTotal();
         }
     }
 
@@ -159,6 +167,10 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
         _timerCount = 0;
     }
 
+    public LogTimer newShard() {
+        return configureShard(new LogTimer(getLayoutPattern()));
+    }
+
     /*
      * Returns the method call stack from the threads map.  If
      * none is found, one is created and an empty stack is returned.
@@ -177,7 +189,7 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
      */
     public boolean addLogEvent(String message) {
         super.addLogEvent(message);
-        Date timeStamp = getDate();
+        long timeStamp = getTime();
         String method = getMethod();
         String thread = getThread();
         Stack<Object[]> methods = getMethodStack(thread);
@@ -206,8 +218,12 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
             if (thisMethod.equals(thatMethod)) {
                 // sanity check, good method
                 method = (String) bundle[INDEX_METHOD_NAME];
-                long exitTime = timeStamp.getTime();
-                long entryTime = ((Date)bundle[INDEX_TIME_STAMP]).getTime();				
+                long exitTime = timeStamp;
+                long entryTime = (Long)bundle[INDEX_TIME_STAMP];				
+                if (exitTime == CompiledDateParser.NO_DATE || entryTime == CompiledDateParser.NO_DATE) {
+                    // can't be timed
+                    return true;
+                }
                 long diff = exitTime - entryTime;
                 addTimer(thread, method, diff);
             }
@@ -221,16 +237,73 @@ public class LogTimer extends AbstractTraceAspectLogAnalyzer {
         MethodTimer mt = _timers.get(threadMethod);
         if (mt == null) {
             _timerCount++;
-            mt = new MethodTimer(thread, method, _timerCount);
+            mt = new MethodTimer(thread, method, _timerCount, getSequence());
             _timers.put(threadMethod, mt);
         }
         mt.addDuration(diff);
     }
 
+    /**
+     * Merges the timers of the shards.  Timers are numbered again in the order they were found, as a single
+     * timer would have.
+     */
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        List<MethodTimer> timers = new ArrayList<MethodTimer>(_timers.values());
+        for (ShardableAnalyzer shard : shards) {
+            LogTimer timer = (LogTimer)shard;
+            mergeShard(timer);
+            _threads.putAll(timer._threads);
+            timers.addAll(timer._timers.values());
+        }
+        Collections.sort(timers, new Comparator<MethodTimer>() {
+            public int compare(MethodTimer t1, MethodTimer t2) {
+                return t1._sequence < t2._sequence ? -1 : (t1._sequence == t2._sequence ? 0 : 1);
+            }
+        });
+        // added in the order they were found, so they're listed as they would have been
+        _timers = new HashMap<String, MethodTimer>();
+        _timerCount = 0;
+        for (MethodTimer timer : timers) {
+            _timerCount++;
+            timer._order = _timerCount;
+            _timers.put(timer.getThread() + ":" + timer.getMethod(), timer);
+        }
+    }
+
+    /**
+     * Adds the durations of the partial's timers to this timer's.  Timers first found by the partial are numbered
+     * after this timer's, in the order the partial found them.  The partial's timers are taken over, it's not to
+     * be used afterwards.
+     */
+    public void merge(MergeableAnalyzer partial) {
+        LogTimer timer = checkPartial(partial);
+        long first = mergePartial(timer);
+        _threads = timer._threads;
+        List<MethodTimer> timers = new ArrayList<MethodTimer>(timer._timers.values());
+        Collections.sort(timers, new Comparator<MethodTimer>() {
+            public int compare(MethodTimer t1, MethodTimer t2) {
+                return t1._order - t2._order;
+            }
+        });
+        for (MethodTimer mt : timers) {
+            String threadMethod = mt.getThread() + ":" + mt.getMethod();
+            MethodTimer existing = _timers.get(threadMethod);
+            if (existing != null) {
+                existing._durations.add(mt._durations);
+            } else {
+                _timerCount++;
+                mt._order = _timerCount;
+                mt._sequence += first;
+                _timers.put(threadMethod, mt);
+            }
+        }
+    }
+
     public String compileSummary() {
         // Not sure the best way to do this... how about CSV (sort yer own)
         String[] headers = {
-                MethodTimer.MAP_THREAD, MethodTimer.MAP_METHOD, MethodTimer.MAP_CALL_ORDER, MethodTimer.MAP_CALLS, MethodTimer.MAP_SHORTEST, MethodTimer.MAP_LONGEST, MethodTimer.MAP_AVERAGE, MethodTimer.MAP_TOTAL
+                MethodTimer.MAP_THREAD, MethodTimer.MAP_METHOD, MethodTimer.MAP_CALL_ORDER, MethodTimer.MAP_CALLS, MethodTimer.MAP_SHORTEST, MethodTimer.MAP_LONGEST, MethodTimer.MAP_AVERAGE, MethodTimer.MAP_TOTAL,
+                MethodTimer.MAP_P50, MethodTimer.MAP_P90, MethodTimer.MAP_P99, MethodTimer.MAP_P999
         };
         CSVRecord record = new CSVRecord(headers);
         for (MethodTimer timer : _timers.values()) {
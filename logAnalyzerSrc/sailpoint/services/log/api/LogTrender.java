@@ -1,92 +1,108 @@
 package sailpoint.services.log.api;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
-
-import com.biliruben.util.csv.CSVRecord;
-import com.biliruben.util.csv.CSVUtil;
+import java.util.Stack;
 
 /**
  * Trends the number of calls per method over time.  Parameters:
  * - Time slice granularity (hourly, minutely, daily?, abstract)
- * - layout pattern 
+ * - layout pattern<br>
+ * <br>
+ * Each method is given an id the first time it exits, and its calls are counted in an array of ints, one per time
+ * slice from its first call to its last.  Calls matched to their 'Entering' event on the same thread also have
+ * their duration counted in a {@link LatencyHistogram} of the slice they exited in, so the trend can show when a
+ * method got slow as well as when it was busy, see {@link Value}.  The summary is a matrix of methods by time
+ * slices, written a line at a time as CSV or JSON, see {@link Format}.<br>
+ * <br>
+ * Coarser trends are rolled up from the slices counted rather than by reading the log again, see
+ * {@link #rollup(long)}.  A trend saved at a fine slice can so be output by the minute, the hour or the day.
+ * Trends of separate partitions of a log are merged by adding up their calls and durations, see
+ * {@link MergeableAnalyzer}.  Durations are timed from the 'Entering' event before each exit, so events have to
+ * be added in the order they were logged.
  */
-public class LogTrender extends AbstractTraceAspectLogAnalyzer {
+public class LogTrender extends AbstractTraceAspectLogAnalyzer implements MergeableAnalyzer, WritableSummary {
 
-    /*
-     * Helper class to house method information
-     */
-    private class MethodTrender {
+    private static final long serialVersionUID = 3L;
 
-        /*
-         * Call map is key value pairs pairing a Date representing a time segment and the number of times the method
-         * was called during the time segment.
+    /**
+     * How the trend is written
+     */
+    public enum Format {
+        /**
+         * A line per method, its name followed by its value in each slice, under a header of the slices' dates
          */
-        private Map<Date, Integer> _callMap;
-
-        // The method describe here in
-        private String _method;
-
-        public MethodTrender (String method) {
-            setMethod (method);
-            _callMap = new HashMap<Date, Integer>();
-        }
-
-        public void addCall (Date dateCalled) {
-            // our slice value will tell us what date value to
-            // 'round down' to
-            long time = dateCalled.getTime();
-            long mod = time % _slice;
-            Date callDate = new Date(time - mod); // this is our map key
-            Integer currentCalls = _callMap.get(callDate);
-            if (currentCalls == null) {
-                _callMap.put(callDate, 1);
-            } else {
-                currentCalls++; // it's an object, right? no need to add back
-                _callMap.put(callDate, currentCalls);
-            }
-        }
-
-        public Collection<Date> getDates() {
-            return new ArrayList<Date>(_callMap.keySet());
-        }
-
+        CSV,
         /**
-         * Builds a map compatible with our CSVRecord object
-         * @return
+         * An object with the slice length, the value reported, the start of the first slice in epoch milliseconds
+         * and the dates of the slices, along with a list of methods and their value in each slice
          */
-        public Map<String, String> getMap() {
-            Map<String, String> map = new HashMap<String, String>();
-            for (Date d : getDates()) {
-                Integer calls = _callMap.get(d);
-                if (calls == null) {
-                    calls = 0;
-                }
-                map.put(d.toString(), String.valueOf(calls));
-            }
-            map.put(MAP_METHOD_NAME, _method);
-            return map;
-        }
-
-        public void setMethod (String method) {
-            _method = method;
-        }
+        JSON
+    }
 
+    /**
+     * What the matrix reports for each method and slice
+     */
+    public enum Value {
+        /**
+         * Calls exiting in the slice
+         */
+        CALLS,
+        /**
+         * Average duration, in milliseconds, of the calls timed in the slice
+         */
+        AVERAGE,
+        /**
+         * Median duration of the calls timed in the slice
+         */
+        P50,
+        /**
+         * 90th percentile duration of the calls timed in the slice
+         */
+        P90,
+        /**
+         * 99th percentile duration of the calls timed in the slice
+         */
+        P99,
+        /**
+         * 99.9th percentile duration of the calls timed in the slice
+         */
+        P999,
+        /**
+         * Longest duration of the calls timed in the slice
+         */
+        MAX
     }
 
     public static final long DEFAULT_TIME_SLICE = 60 * 60 * 1000; // 1 hour in milliseconds
     private static final String MAP_METHOD_NAME = "method";
+    private static final int INITIAL_CAPACITY = 16;
     private long _slice;
+    private Format _format = Format.CSV;
+    private Value _value = Value.CALLS;
+    private long[] _rollups = new long[0];
 
-    private Map<String, MethodTrender> _trenders;
+    // methods by id
+    private List<String> _methods;
+    private Map<String, Integer> _methodIds;
+    // slice of each method's first count, by id
+    private long[] _firstSlices;
+    // calls of each method in each slice from its first, by id
+    private int[][] _calls;
+    // durations of each method's calls in each slice from its first, by id, null until one is timed
+    private LatencyHistogram[][] _durations;
+    // calls in progress of each thread
+    private Map<String, Stack<TracedCall>> _stacks;
+    // first and last slices with calls, of all methods
+    private long _firstSlice = Long.MAX_VALUE;
+    private long _lastSlice = Long.MIN_VALUE;
 
     /**
      * Default constructor
@@ -106,87 +122,365 @@ public class LogTrender extends AbstractTraceAspectLogAnalyzer {
     public LogTrender(String layoutPattern, long timeSlice) {
         super(layoutPattern);
         _slice = timeSlice;
-        _trenders = new HashMap<String, MethodTrender>();
+        _methods = new ArrayList<String>();
+        _methodIds = new HashMap<String, Integer>();
+        _firstSlices = new long[INITIAL_CAPACITY];
+        _calls = new int[INITIAL_CAPACITY][];
+        _durations = new LatencyHistogram[INITIAL_CAPACITY][];
+        _stacks = new HashMap<String, Stack<TracedCall>>();
+    }
+
+    /**
+     * Sets how the trend is written, CSV by default
+     * @param format
+     */
+    public void setFormat(Format format) {
+        _format = format;
+    }
+
+    /**
+     * Sets what the matrix reports for each method and slice, calls by default
+     * @param value
+     */
+    public void setValue(Value value) {
+        _value = value;
+    }
+
+    /**
+     * Sets the coarser slices the trend is also written at, each rolled up from this trend's
+     * @param rollups Slice lengths in milliseconds, each a multiple of this trend's
+     * @throws IllegalArgumentException When a slice isn't a multiple of this trend's
+     */
+    public void setRollups(long[] rollups) {
+        for (long rollup : rollups) {
+            checkRollup(rollup);
+        }
+        _rollups = rollups.clone();
+    }
+
+    private void checkRollup(long slice) {
+        if (slice < _slice || slice % _slice != 0) {
+            throw new IllegalArgumentException("Can't roll up a trend of " + _slice + "ms slices into " + slice + "ms slices, it's not a multiple");
+        }
     }
 
     /**
-     * For each incoming logEvent, extract the method name and 
+     * For each incoming logEvent, extract the method name and
      * date exited.  Build our trend data from that.
      */
     @Override
     public boolean addLogEvent(String logEvent) {
         super.addLogEvent(logEvent);
-        if (isExiting()) { // only trend exists
-            String method = getMethod();
-            Date date = getDate();
-            MethodTrender trender = _trenders.get(method);
-            if (trender == null) {
-                trender = new MethodTrender(method);
-                _trenders.put(method, trender);
+        boolean entering = isEntering();
+        if (!entering && !isExiting()) {
+            return true;
+        }
+        long time = getTime();
+        String thread = getThread();
+        Stack<TracedCall> calls = _stacks.get(thread);
+        if (entering) {
+            if (calls == null) {
+                calls = new Stack<TracedCall>();
+                _stacks.put(thread, calls);
             }
-            trender.addCall(date);
+            calls.push(new TracedCall(getMethodName(getMethod()), time));
+            return true;
+        }
+        // only trend exits
+        long duration = -1;
+        TracedCall call = popCall(calls, getMethodName(getMethod()));
+        if (call != null && call.getEntered() != CompiledDateParser.NO_DATE && time != CompiledDateParser.NO_DATE) {
+            duration = time - call.getEntered();
+        }
+        if (time == CompiledDateParser.NO_DATE) {
+            // no slice to count it in
+            return true;
+        }
+        int id = getMethodId(getMethod());
+        int index = getIndex(id, floorDiv(time, _slice));
+        _calls[id][index]++;
+        if (duration >= 0) {
+            getDurations(id, index).record(duration);
         }
         return true;
     }
 
+    private static long floorDiv(long time, long slice) {
+        long div = time / slice;
+        return time % slice < 0 ? div - 1 : div;
+    }
+
+    private int getMethodId(String method) {
+        Integer id = _methodIds.get(method);
+        if (id == null) {
+            id = _methods.size();
+            _methods.add(method);
+            _methodIds.put(method, id);
+            if (id == _calls.length) {
+                _calls = Arrays.copyOf(_calls, id * 2);
+                _durations = Arrays.copyOf(_durations, id * 2);
+                _firstSlices = Arrays.copyOf(_firstSlices, id * 2);
+            }
+        }
+        return id;
+    }
+
+    /*
+     * Returns the index of the slice in the method's counts and durations, growing them to reach it
+     */
+    private int getIndex(int id, long slice) {
+        int[] counts = _calls[id];
+        LatencyHistogram[] durations = _durations[id];
+        if (counts == null) {
+            counts = new int[1];
+            durations = new LatencyHistogram[1];
+            _firstSlices[id] = slice;
+        } else if (slice < _firstSlices[id]) {
+            // an earlier slice, as when merging partitions out of order
+            int shift = toIndex(_firstSlices[id] - slice);
+            int[] shiftedCounts = new int[counts.length + shift];
+            System.arraycopy(counts, 0, shiftedCounts, shift, counts.length);
+            counts = shiftedCounts;
+            LatencyHistogram[] shiftedDurations = new LatencyHistogram[durations.length + shift];
+            System.arraycopy(durations, 0, shiftedDurations, shift, durations.length);
+            durations = shiftedDurations;
+            _firstSlices[id] = slice;
+        }
+        int index = toIndex(slice - _firstSlices[id]);
+        if (index >= counts.length) {
+            int capacity = Math.max(index + 1, counts.length * 2);
+            counts = Arrays.copyOf(counts, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+        }
+        _calls[id] = counts;
+        _durations[id] = durations;
+        _firstSlice = Math.min(_firstSlice, slice);
+        _lastSlice = Math.max(_lastSlice, slice);
+        return index;
+    }
+
+    private LatencyHistogram getDurations(int id, int index) {
+        LatencyHistogram durations = _durations[id][index];
+        if (durations == null) {
+            durations = new LatencyHistogram();
+            _durations[id][index] = durations;
+        }
+        return durations;
+    }
+
+    /*
+     * Adds the calls and durations of a method's slice of another trend to the slice of this one
+     */
+    private void add(int id, long slice, int calls, LatencyHistogram durations) {
+        int index = getIndex(id, slice);
+        _calls[id][index] += calls;
+        if (durations != null) {
+            getDurations(id, index).add(durations);
+        }
+    }
+
+    private static int toIndex(long slices) {
+        if (slices > Integer.MAX_VALUE - 1) {
+            throw new IllegalStateException("Trend spans too many slices: " + slices);
+        }
+        return (int)slices;
+    }
+
+    /*
+     * The value of the method in the slice, null when there's no duration to report
+     */
+    private String getValue(int id, long slice) {
+        int[] counts = _calls[id];
+        long index = slice - _firstSlices[id];
+        boolean inRange = index >= 0 && index < counts.length;
+        if (_value == Value.CALLS) {
+            return String.valueOf(inRange ? counts[(int)index] : 0);
+        }
+        LatencyHistogram durations = inRange ? _durations[id][(int)index] : null;
+        if (durations == null) {
+            return null;
+        }
+        switch (_value) {
+        case AVERAGE:
+            return String.valueOf(durations.getTotal() / durations.getCount());
+        case P50:
+            return String.valueOf(durations.getValueAtPercentile(50));
+        case P90:
+            return String.valueOf(durations.getValueAtPercentile(90));
+        case P99:
+            return String.valueOf(durations.getValueAtPercentile(99));
+        case P999:
+            return String.valueOf(durations.getValueAtPercentile(99.9));
+        default:
+            return String.valueOf(durations.getMax());
+        }
+    }
+
     /**
-     * Returns a String representing a CSV of method calls over segments of time
+     * Returns this trend rolled up into coarser slices, the calls and durations of the slices falling in each
+     * coarser one added together.  The rollup reports the same value in the same format, it isn't to be given
+     * more events.
+     * @param slice Slice length in milliseconds, a multiple of this trend's
+     * @return
+     * @throws IllegalArgumentException When the slice isn't a multiple of this trend's
      */
-    public String compileSummary() {
-        // Our output will be CSV. I think column names should be the time stamp, representing 'over time'
-        // so.... how do we do this?
-        //
-        // iterate over all of the MethodTrenders, get the 'keys', aka dates
-        // shove the dates in a SortedSet.  We now have our finite headers for our CSV
-        // we have to define the headers to ensure they're in order.
-        // header will need to be string values
-        //
-        // To pass over the data three times is inefficient.  Find a better way.
-        Set<Date> trenderDates = new TreeSet<Date>();
-        for (MethodTrender trender : _trenders.values()) {
-            trenderDates.addAll(trender.getDates()); // adding them as dates gives me auto-sort
-        }
-
-        List<String> headerList = new ArrayList<String>();
-        //String[] header = new String[trenderDates.size() + 1];
-        headerList.add(MAP_METHOD_NAME);
-        //int i = 1;
-        // we have to refactor this as it will leave time window gaps (i.e., if nothing is called in a certain 5 second windo, that column goes missing)
-        // For linear examination, I need to know the void columns as well as the data columns.
-        // Iterator<Date> dateIter = trenderDates.iterator();
-        /*
-	      while (dateIter.hasNext()) {
-	            Date d = dateIter.next();
-	            header[i] = d.toString();
-	            i++;
-	        }
-         */
-        // instead of using the iterator, we'll use the earliest and latest dates as our headers using _timeslice as our incrementer. Since our data
-        // map keys are Date objects, I'll need to construct my own Dates, test if a matching Date is used as a key, and use the key Date when it does
-        Date[] dateArray = trenderDates.toArray(new Date[trenderDates.size()]);
-        long begin = dateArray[0].getTime();
-        long end = dateArray[dateArray.length - 1].getTime();
-        for (long time = begin; time <= end; time += _slice) {
-            Date d = new Date(time);
-            headerList.add(d.toString());
+    public LogTrender rollup(long slice) {
+        checkRollup(slice);
+        LogTrender rollup = new LogTrender(getLayoutPattern(), slice);
+        rollup._format = _format;
+        rollup._value = _value;
+        for (int id = 0; id < _methods.size(); id++) {
+            rollup.getMethodId(_methods.get(id));
+            int[] counts = _calls[id];
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0 || _durations[id][i] != null) {
+                    long time = (_firstSlices[id] + i) * _slice;
+                    rollup.add(id, floorDiv(time, slice), counts[i], _durations[id][i]);
+                }
+            }
         }
+        return rollup;
+    }
 
-        String[] header = headerList.toArray(new String[headerList.size()]);
-        // Create a CSVRecord to store our data in ready-to-CSV format
-        CSVRecord record = new CSVRecord(header);
-        record.setNullValue("0");
-        for (MethodTrender trender : _trenders.values()) {
-            record.addLine(trender.getMap());
+    /**
+     * Adds the partial's calls to this trend
+     * @throws IllegalArgumentException When the partial trends another time slice
+     */
+    public void merge(MergeableAnalyzer partial) {
+        LogTrender trend = checkPartial(partial);
+        if (trend._slice != _slice) {
+            throw new IllegalArgumentException("Can't merge a trend of " + trend._slice + "ms slices into one of " + _slice + "ms slices");
+        }
+        mergePartial(trend);
+        // the calls in progress are the partial's, it couldn't tell where those of this trend ended
+        _stacks = trend._stacks;
+        for (int partialId = 0; partialId < trend._methods.size(); partialId++) {
+            int id = getMethodId(trend._methods.get(partialId));
+            int[] counts = trend._calls[partialId];
+            LatencyHistogram[] durations = trend._durations[partialId];
+            // from the last, so the counts grow at most once
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0 || durations[i] != null) {
+                    add(id, trend._firstSlices[partialId] + i, counts[i], durations[i]);
+                }
+            }
         }
+    }
 
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Returns a String representing a CSV of method calls over segments of time
+     */
+    public String compileSummary() {
+        StringWriter out = new StringWriter();
         try {
-            CSVUtil.exportToCsv(record, out);
+            writeSummary(out);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
-
         return out.toString();
     }
+
+    /**
+     * Writes the trend of each method from the first slice with calls to the last, slices without calls
+     * included, in the format set.  Methods are listed in the order they were first called.  The rollups set
+     * follow, each written the same way after a blank line.
+     */
+    public void writeSummary(Writer out) throws IOException {
+        writeTrend(out);
+        for (long rollup : _rollups) {
+            out.write('\n');
+            rollup(rollup).writeTrend(out);
+        }
+    }
+
+    private void writeTrend(Writer out) throws IOException {
+        if (_format == Format.JSON) {
+            writeJson(out);
+        } else {
+            writeCsv(out);
+        }
+    }
+
+    private void writeCsv(Writer out) throws IOException {
+        out.write(MAP_METHOD_NAME);
+        // nothing trended yet, as when summarizing a followed log early on
+        for (long slice = _firstSlice; slice <= _lastSlice; slice++) {
+            out.write(',');
+            writeCsvValue(out, new Date(slice * _slice).toString());
+        }
+        out.write('\n');
+        for (int id = 0; id < _methods.size(); id++) {
+            writeCsvValue(out, _methods.get(id));
+            for (long slice = _firstSlice; slice <= _lastSlice; slice++) {
+                out.write(',');
+                String value = getValue(id, slice);
+                if (value != null) {
+                    out.write(value);
+                }
+            }
+            out.write('\n');
+        }
+    }
+
+    /*
+     * Quotes values holding a separator, a quote or a line break, as CSVUtil does
+     */
+    private static void writeCsvValue(Writer out, String value) throws IOException {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private void writeJson(Writer out) throws IOException {
+        out.write("{\"slice\":");
+        out.write(String.valueOf(_slice));
+        out.write(",\"value\":");
+        writeJsonString(out, _value.name().toLowerCase());
+        out.write(",\"start\":");
+        out.write(_firstSlice <= _lastSlice ? String.valueOf(_firstSlice * _slice) : "null");
+        out.write(",\"dates\":[");
+        for (long slice = _firstSlice; slice <= _lastSlice; slice++) {
+            if (slice > _firstSlice) {
+                out.write(',');
+            }
+            writeJsonString(out, new Date(slice * _slice).toString());
+        }
+        out.write("],\n\"methods\":[");
+        for (int id = 0; id < _methods.size(); id++) {
+            out.write(id > 0 ? ",\n" : "\n");
+            out.write("{\"method\":");
+            writeJsonString(out, _methods.get(id));
+            out.write(",\"values\":[");
+            for (long slice = _firstSlice; slice <= _lastSlice; slice++) {
+                if (slice > _firstSlice) {
+                    out.write(',');
+                }
+                String value = getValue(id, slice);
+                out.write(value == null ? "null" : value);
+            }
+            out.write("]}");
+        }
+        out.write("\n]}\n");
+    }
+
+    private static void writeJsonString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write(String.format("\\u%04x", (int)c));
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
 }
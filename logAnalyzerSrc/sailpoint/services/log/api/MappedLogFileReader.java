@@ -0,0 +1,336 @@
+package sailpoint.services.log.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Memory mapped, byte level log event reader for a single file.  The file is mapped with {@link FileChannel#map}
+ * (in windows when the file is larger than the window size, 2 GB by default) and scanned for line breaks.  Each
+ * line is tested against the layout's line pattern to decide if it starts a new event, but no line is ever
+ * decoded or copied: events are handed out as {@link LogEventSlice} byte ranges of the mapped buffer.<br>
+ * <br>
+ * A reader may be limited to a range of the file.  Reading begins with the first event that starts at or after
+ * the range start and stops with the last event that starts before the range end, so adjacent ranges never
+ * share or split an event.
+ * @author trey.kirk
+ *
+ */
+public class MappedLogFileReader implements Iterator<LogEventSlice> {
+
+    private static Log _log = LogFactory.getLog(MappedLogFileReader.class);
+
+    /**
+     * Largest window that can be mapped in a single buffer
+     */
+    public static final long DEFAULT_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    // Only this many bytes of a line are looked at for the start of an event, same as the converter
+    private static final int BOUNDARY_MATCH_LIMIT = 512;
+
+    /*
+     * Mutable view of a line in the current window.  Used only for boundary matching so
+     * no object is created per line.
+     */
+    private class LineView implements CharSequence {
+        private int _lineStart;
+        private int _lineEnd;
+
+        private void set(int start, int end) {
+            _lineStart = start;
+            _lineEnd = end;
+        }
+
+        public int length() {
+            return _lineEnd - _lineStart;
+        }
+
+        public char charAt(int index) {
+            return (char)(_window.get(_lineStart + index) & 0xff);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            // Only used by the regex engine when reporting groups, which we never ask for
+            StringBuilder buff = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                buff.append(charAt(i));
+            }
+            return buff.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+
+    private File _file;
+    private RandomAccessFile _raf;
+    private FileChannel _channel;
+    private long _fileSize;
+    private long _rangeEnd;
+    private long _windowSize;
+    private Charset _charset;
+    private Log4jPatternConverter _converter;
+    private LineView _line;
+
+    private MappedByteBuffer _window;
+    private long _windowStart;
+    private int _scan;
+    private int _eventStart = -1;
+    private boolean _done;
+    private LogEventSlice _next;
+
+    /**
+     * Reads every event in the file
+     * @param file
+     * @param converter Converter for the file's layout pattern.  Only its line pattern is used.
+     * @throws IOException
+     */
+    public MappedLogFileReader(File file, Log4jPatternConverter converter) throws IOException {
+        this (file, converter, 0, Long.MAX_VALUE, DEFAULT_WINDOW_SIZE, Charset.defaultCharset());
+    }
+
+    /**
+     * Reads the events of the file that start within the range [start, end).
+     * @param file
+     * @param converter Converter for the file's layout pattern.  Only its line pattern is used.
+     * @param start First offset an event may start at
+     * @param end Events starting at or after this offset are not read
+     * @param windowSize Largest number of bytes mapped at one time
+     * @param charset Character set used to decode events
+     * @throws IOException
+     */
+    public MappedLogFileReader(File file, Log4jPatternConverter converter, long start, long end, long windowSize, Charset charset) throws IOException {
+        if (windowSize <= 0 || windowSize > DEFAULT_WINDOW_SIZE) {
+            throw new IllegalArgumentException("Window size must be between 1 and " + DEFAULT_WINDOW_SIZE + ": " + windowSize);
+        }
+        _file = file;
+        _converter = converter;
+        _line = new LineView();
+        _windowSize = windowSize;
+        _charset = charset;
+        _rangeEnd = end;
+        _raf = new RandomAccessFile(file, "r");
+        _channel = _raf.getChannel();
+        _fileSize = _channel.size();
+        _log.debug("Mapping " + file + " (" + _fileSize + " bytes) from " + start + " to " + end);
+        if (start >= _fileSize || start >= end) {
+            close();
+            return;
+        }
+        if (start > 0) {
+            // start one byte early to learn if 'start' is the beginning of a line
+            map(start - 1);
+            if (_window.get(0) == '\n') {
+                _scan = 1;
+            } else {
+                // middle of a line, the event it belongs to is not ours
+                _scan = skipLine(0);
+            }
+        } else {
+            map(0);
+        }
+    }
+
+    /*
+     * Maps the window beginning at the absolute offset
+     */
+    private void map(long offset) throws IOException {
+        long size = Math.min(_windowSize, _fileSize - offset);
+        _log.trace("Mapping window: " + offset + " + " + size);
+        _window = _channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        _windowStart = offset;
+    }
+
+    /*
+     * Returns the window index just past the next '\n', or the window limit
+     */
+    private int skipLine(int from) {
+        int limit = _window.limit();
+        for (int i = from; i < limit; i++) {
+            if (_window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    private boolean isEventStart(int lineStart, int lineEnd) {
+        if (lineEnd > lineStart && _window.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        if (lineEnd - lineStart > BOUNDARY_MATCH_LIMIT) {
+            lineEnd = lineStart + BOUNDARY_MATCH_LIMIT;
+        }
+        _line.set(lineStart, lineEnd);
+        return _converter.isEventStart(_line);
+    }
+
+    /*
+     * Builds the slice for the pending event that ends where 'end' begins. The trailing
+     * line separator is not part of the event.
+     */
+    private LogEventSlice slicePending(int end) {
+        int eventEnd = end;
+        if (eventEnd > _eventStart && _window.get(eventEnd - 1) == '\n') {
+            eventEnd--;
+        }
+        if (eventEnd > _eventStart && _window.get(eventEnd - 1) == '\r') {
+            eventEnd--;
+        }
+        LogEventSlice slice = new LogEventSlice(_file, _window, _eventStart, eventEnd,
+                _windowStart + _eventStart, _windowStart + end, _charset);
+        _eventStart = -1;
+        return slice;
+    }
+
+    /*
+     * Scans forward to the next complete event
+     */
+    private LogEventSlice readNext() throws IOException {
+        while (!_done) {
+            int limit = _window.limit();
+            if (_scan >= limit) {
+                if (_windowStart + limit >= _fileSize) {
+                    // end of the file, whatever is pending is complete
+                    _done = true;
+                    if (_eventStart >= 0) {
+                        return slicePending(limit);
+                    }
+                    break;
+                }
+                LogEventSlice truncated = remap(_windowStart + _scan);
+                if (truncated != null) {
+                    return truncated;
+                }
+                continue;
+            }
+
+            int lineStart = _scan;
+            int lineEnd = lineStart;
+            while (lineEnd < limit && _window.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == limit && _windowStart + limit < _fileSize && lineStart > 0) {
+                // line continues past this window. (When it begins the window, the line by itself
+                // is larger than a window and what we have is treated as the line.)
+                LogEventSlice truncated = remap(_windowStart + lineStart);
+                if (truncated != null) {
+                    return truncated;
+                }
+                continue;
+            }
+            int next = lineEnd < limit ? lineEnd + 1 : limit;
+
+            if (isEventStart(lineStart, lineEnd)) {
+                if (_windowStart + lineStart >= _rangeEnd) {
+                    // this event and all that follow belong to the next range
+                    _done = true;
+                    if (_eventStart >= 0) {
+                        return slicePending(lineStart);
+                    }
+                    break;
+                }
+                LogEventSlice slice = null;
+                if (_eventStart >= 0) {
+                    slice = slicePending(lineStart);
+                }
+                _eventStart = lineStart;
+                _scan = next;
+                if (slice != null) {
+                    return slice;
+                }
+            } else {
+                if (_eventStart < 0) {
+                    _log.trace("Skipping line outside of any event at offset " + (_windowStart + lineStart));
+                }
+                _scan = next;
+            }
+        }
+        close();
+        return null;
+    }
+
+    /*
+     * Maps a new window beginning with the pending event, or with 'from' when nothing is pending.  A pending
+     * event that already begins the current window can't fit in any window: the part read so far is returned
+     * and reading continues at 'from'.
+     */
+    private LogEventSlice remap(long from) throws IOException {
+        long mapFrom = _eventStart >= 0 ? _windowStart + _eventStart : from;
+        LogEventSlice truncated = null;
+        if (mapFrom == _windowStart && _eventStart >= 0) {
+            _log.warn("Event at offset " + mapFrom + " in " + _file + " exceeds the mapping window of " + _windowSize + " bytes and will be truncated");
+            truncated = slicePending((int)(from - _windowStart));
+            mapFrom = from;
+        }
+        boolean pending = _eventStart >= 0;
+        int scan = (int)(from - mapFrom);
+        map(mapFrom);
+        _eventStart = pending ? 0 : -1;
+        _scan = scan;
+        return truncated;
+    }
+
+    public boolean hasNext() {
+        if (_next == null) {
+            try {
+                _next = readNext();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return _next != null;
+    }
+
+    public LogEventSlice next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        LogEventSlice next = _next;
+        _next = null;
+        return next;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns the file being read
+     * @return
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the converter used to detect event boundaries
+     * @return
+     */
+    public Log4jPatternConverter getConverter() {
+        return _converter;
+    }
+
+    /**
+     * Releases the file.  Mapped windows remain valid for any slices still referenced.
+     */
+    public void close() {
+        _done = true;
+        try {
+            _raf.close();
+        } catch (IOException e) {
+            _log.warn("Error closing " + _file, e);
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+
+/**
+ * An analyzer whose results can be combined with those of another analyzer of the same kind, each having analyzed
+ * a partition of the events: a range of a log, some of the files, or logs read on another machine.  Partitions are
+ * merged in the order they were logged, so summaries listing events list them as a single analyzer reading one
+ * partition after another would have.<br>
+ * <br>
+ * What spans partitions isn't carried over: a method entered in one partition and exited in the next isn't timed
+ * and an error doesn't show the calls made in the partition before.  Partial analyzers are saved and loaded with
+ * {@link PartialAnalysis}, so other JVMs or earlier runs may produce them.
+ * @author trey.kirk
+ *
+ */
+public interface MergeableAnalyzer extends LogAnalyzer, Serializable {
+
+    /**
+     * Merges the results of an analyzer that analyzed the partition following this one's
+     * @param partial An analyzer of the same kind, configured the same way
+     * @throws IllegalArgumentException When the partial is of another kind or configured differently
+     */
+    public void merge(MergeableAnalyzer partial);
+
+}
@@ -0,0 +1,331 @@
+package sailpoint.services.log.api;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Interleaves the events of several log files in time stamp order, such as the logs of each node of a cluster.
+ * Every file is read by its own prefetch thread into a bounded queue, so the merge only waits on disk when a
+ * file's reader falls behind.  The merge itself is a min-heap on the time stamp of each file's current event;
+ * events with equal time stamps are taken in file order and, within a file, in the order they were logged.<br>
+ * <br>
+ * Events whose time stamp can't be parsed keep the time of the event before them in the same file so they stay
+ * with it.  Time stamps are compared as they're parsed: layouts that don't include the date should only be merged
+ * for logs covering less than a day.<br>
+ * <br>
+ * Files are memory mapped and read by a {@link MappedLogFileReader}.  Compressed logs are inflated by their
+ * prefetch thread as they're read, each member of a zip archive being merged as a log of its own.  Only a few
+ * batches of events per log are held at any time, so unlike {@link LogMerger} memory use doesn't grow with the
+ * size of the logs.
+ * @author trey.kirk
+ *
+ */
+public class MergingLogIterator implements Iterator<String> {
+
+    private static Log _log = LogFactory.getLog(MergingLogIterator.class);
+
+    // events per batch handed from a prefetch thread to the merge
+    private static final int BATCH_SIZE = 512;
+    // batches each prefetch thread may read ahead
+    private static final int QUEUE_BATCHES = 4;
+
+    /*
+     * A batch of events from one file.  The last batch of a file is empty, or carries the error that ended it.
+     */
+    private static class EventBatch {
+        private String[] _events;
+        private long[] _times;
+        private int _size;
+        private RuntimeException _error;
+
+        private EventBatch(int capacity) {
+            _events = new String[capacity];
+            _times = new long[capacity];
+        }
+    }
+
+    /*
+     * Reads a file ahead of the merge
+     */
+    private class Prefetcher implements Runnable {
+        private LogSource _file;
+        private BlockingQueue<EventBatch> _queue;
+
+        private Prefetcher(LogSource file) {
+            _file = file;
+            _queue = new ArrayBlockingQueue<EventBatch>(QUEUE_BATCHES);
+        }
+
+        public void run() {
+            Iterator<String> reader = null;
+            try {
+                Log4jPatternConverter converter = new Log4jPatternConverter(_layoutPattern);
+                if (_file.isCompressed()) {
+                    reader = new StreamEventReader(_file.open(), converter);
+                } else {
+                    reader = new SliceReader(new MappedLogFileReader(_file.getFile(), converter));
+                }
+                long lastTime = CompiledDateParser.NO_DATE;
+                EventBatch batch = new EventBatch(BATCH_SIZE);
+                while (reader.hasNext() && !_closed) {
+                    String event = reader.next();
+                    // only the time stamp is needed
+                    long time = converter.parseTime(event);
+                    if (time == CompiledDateParser.NO_DATE) {
+                        time = lastTime;
+                    }
+                    lastTime = time;
+                    batch._events[batch._size] = event;
+                    batch._times[batch._size] = time;
+                    batch._size++;
+                    if (batch._size == BATCH_SIZE) {
+                        _queue.put(batch);
+                        batch = new EventBatch(BATCH_SIZE);
+                    }
+                }
+                if (batch._size > 0) {
+                    _queue.put(batch);
+                }
+                _queue.put(new EventBatch(0));
+            } catch (InterruptedException e) {
+                _log.debug("Prefetch of " + _file + " interrupted");
+            } catch (IOException e) {
+                failed(new RuntimeException("Error reading " + _file, e));
+            } catch (RuntimeException e) {
+                failed(e);
+            } finally {
+                if (reader instanceof Closeable) {
+                    try {
+                        ((Closeable)reader).close();
+                    } catch (IOException e) {
+                        _log.warn("Error closing " + _file, e);
+                    }
+                }
+            }
+        }
+
+        private void failed(RuntimeException e) {
+            EventBatch batch = new EventBatch(0);
+            batch._error = e;
+            try {
+                _queue.put(batch);
+            } catch (InterruptedException ie) {
+                _log.debug("Prefetch of " + _file + " interrupted");
+            }
+        }
+    }
+
+    /*
+     * Decodes the events of a mapped file
+     */
+    private static class SliceReader implements Iterator<String>, Closeable {
+        private MappedLogFileReader _reader;
+
+        private SliceReader(MappedLogFileReader reader) {
+            _reader = reader;
+        }
+
+        public boolean hasNext() {
+            return _reader.hasNext();
+        }
+
+        public String next() {
+            return _reader.next().toString();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() {
+            _reader.close();
+        }
+    }
+
+    /*
+     * Reads the events of a stream.  Same as the mapped reader, lines before the first event are skipped
+     * and the last event ends with the stream.
+     */
+    private static class StreamEventReader implements Iterator<String>, Closeable {
+        private BufferedReader _reader;
+        private Log4jPatternConverter _converter;
+        private String _pendingLine;
+        private String _next;
+
+        private StreamEventReader(InputStream in, Log4jPatternConverter converter) {
+            _reader = new BufferedReader(new InputStreamReader(in));
+            _converter = converter;
+        }
+
+        public boolean hasNext() {
+            if (_next != null) {
+                return true;
+            }
+            try {
+                String line;
+                while (_pendingLine == null && (line = _reader.readLine()) != null) {
+                    if (_converter.isEventStart(line)) {
+                        _pendingLine = line;
+                    }
+                }
+                if (_pendingLine == null) {
+                    return false;
+                }
+                StringBuilder event = new StringBuilder(_pendingLine);
+                _pendingLine = null;
+                while ((line = _reader.readLine()) != null) {
+                    if (_converter.isEventStart(line)) {
+                        _pendingLine = line;
+                        break;
+                    }
+                    event.append('\n').append(line);
+                }
+                _next = event.toString();
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String next = _next;
+            _next = null;
+            return next;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public void close() throws IOException {
+            _reader.close();
+        }
+    }
+
+    /*
+     * A file's position in the merge
+     */
+    private static class Head {
+        private int _ordinal;
+        private Prefetcher _prefetcher;
+        private EventBatch _batch;
+        private int _index;
+
+        private long getTime() {
+            return _batch._times[_index];
+        }
+    }
+
+    private String _layoutPattern;
+    private List<Thread> _threads;
+    private PriorityQueue<Head> _heap;
+    private volatile boolean _closed;
+
+    /**
+     * Starts reading the files
+     * @param files Logs to merge.  Their order only breaks ties between equal time stamps.
+     * @param layoutPattern
+     * @throws IOException
+     */
+    public MergingLogIterator(List<LogSource> files, String layoutPattern) throws IOException {
+        _layoutPattern = layoutPattern;
+        _threads = new ArrayList<Thread>();
+        _heap = new PriorityQueue<Head>(Math.max(1, files.size()), new Comparator<Head>() {
+            public int compare(Head h1, Head h2) {
+                long t1 = h1.getTime();
+                long t2 = h2.getTime();
+                if (t1 != t2) {
+                    return t1 < t2 ? -1 : 1;
+                }
+                return h1._ordinal - h2._ordinal;
+            }
+        });
+        List<Head> heads = new ArrayList<Head>();
+        for (LogSource file : files) {
+            Head head = new Head();
+            head._ordinal = heads.size();
+            head._prefetcher = new Prefetcher(file);
+            heads.add(head);
+            Thread thread = new Thread(head._prefetcher, "LogPrefetch-" + file.getFile().getName());
+            thread.setDaemon(true);
+            _threads.add(thread);
+            thread.start();
+        }
+        for (Head head : heads) {
+            if (advance(head)) {
+                _heap.add(head);
+            }
+        }
+    }
+
+    /*
+     * Moves to the next event of the file, false when the file is done
+     */
+    private boolean advance(Head head) {
+        head._index++;
+        if (head._batch != null && head._index < head._batch._size) {
+            return true;
+        }
+        try {
+            head._batch = head._prefetcher._queue.take();
+        } catch (InterruptedException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+        head._index = 0;
+        if (head._batch._error != null) {
+            close();
+            throw head._batch._error;
+        }
+        return head._batch._size > 0;
+    }
+
+    public boolean hasNext() {
+        return !_heap.isEmpty();
+    }
+
+    public String next() {
+        Head head = _heap.poll();
+        if (head == null) {
+            throw new NoSuchElementException();
+        }
+        String event = head._batch._events[head._index];
+        head._batch._events[head._index] = null;
+        if (advance(head)) {
+            _heap.add(head);
+        }
+        return event;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the prefetch threads
+     */
+    public void close() {
+        _closed = true;
+        for (Thread thread : _threads) {
+            thread.interrupt();
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package sailpoint.services.log.api;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Stack;
@@ -12,17 +13,24 @@ import java.util.Stack;
  * @author trey.kirk
  *
  */
-public class MethodIsolationAnalzyer extends MethodStackAnalyzer {
+public class MethodIsolationAnalzyer extends MethodStackAnalyzer implements StreamingAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
     private String _className;
     private String _methodName;
-    private List<String> _isolatedEvents;
+    private SequencedList<String> _isolatedEvents;
+    private transient Writer _output;
 
     public MethodIsolationAnalzyer(String className, String methodName, String layoutPattern) {
         super(layoutPattern);
         this._className = className;
         this._methodName = methodName;
-        this._isolatedEvents = new ArrayList<String>();
+        this._isolatedEvents = new SequencedList<String>();
+    }
+
+    public MethodIsolationAnalzyer newShard() {
+        return configureShard(new MethodIsolationAnalzyer(_className, _methodName, getLayoutPattern()));
     }
     
     
@@ -30,10 +38,32 @@ public class MethodIsolationAnalzyer extends MethodStackAnalyzer {
     public boolean addLogEvent(String logEvent) {
         super.addLogEvent(logEvent);
         if (isInMethod()) {
-            _isolatedEvents.add(logEvent);
+            if (_output != null) {
+                writeEvent(_output, logEvent);
+            } else {
+                _isolatedEvents.add(getSequence(), logEvent);
+            }
         }
         return true;
     }
+
+    public void setOutput(Writer out) {
+        _output = out;
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
+    @Override
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        super.mergeShards(shards);
+        List<SequencedList<String>> events = new ArrayList<SequencedList<String>>();
+        for (ShardableAnalyzer shard : shards) {
+            events.add(((MethodIsolationAnalzyer)shard)._isolatedEvents);
+        }
+        _isolatedEvents.merge(events);
+    }
     
     private boolean isInMethod() {
         // Consult the current log event's Thread.
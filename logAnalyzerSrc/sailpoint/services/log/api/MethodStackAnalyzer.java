@@ -5,7 +5,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
-public abstract class MethodStackAnalyzer extends AbstractTraceAspectLogAnalyzer {
+/**
+ * Keeps the call stack of each thread of the log.  Since nothing is shared between threads, subclasses are
+ * {@link ShardableAnalyzer}s: they create their shards and merge whatever they keep besides the call stacks.
+ * @author trey.kirk
+ *
+ */
+public abstract class MethodStackAnalyzer extends AbstractTraceAspectLogAnalyzer implements ShardableAnalyzer {
+
+    private static final long serialVersionUID = 1L;
 
     protected Map<String,Stack<String[]>> _threads;
     protected int _propNameMaxLength = 10;
@@ -87,6 +95,30 @@ public abstract class MethodStackAnalyzer extends AbstractTraceAspectLogAnalyzer
         return true;
     }
 
+    /**
+     * Merges the call stacks of the shards.  Subclasses merge what else they keep and call this.
+     */
+    public void mergeShards(List<? extends ShardableAnalyzer> shards) {
+        for (ShardableAnalyzer shard : shards) {
+            MethodStackAnalyzer analyzer = (MethodStackAnalyzer)shard;
+            mergeShard(analyzer);
+            _threads.putAll(analyzer._threads);
+            _throwingMethods.putAll(analyzer._throwingMethods);
+        }
+    }
+
+    /**
+     * Takes on the call stacks of the partial as well
+     */
+    @Override
+    protected long mergePartial(AbstractTraceAspectLogAnalyzer partial) {
+        long first = super.mergePartial(partial);
+        MethodStackAnalyzer analyzer = (MethodStackAnalyzer)partial;
+        _threads = analyzer._threads;
+        _throwingMethods = analyzer._throwingMethods;
+        return first;
+    }
+
     /*
      * Converts the method signature list into a pretty summary.
      */
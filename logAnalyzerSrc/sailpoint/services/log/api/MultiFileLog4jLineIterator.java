@@ -3,18 +3,21 @@ package sailpoint.services.log.api;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.NoSuchElementException;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -26,6 +29,17 @@ import org.apache.commons.logging.LogFactory;
  * iterator specifically matches an entire log event to the provided LayoutPattern, which may encompass multiple
  * lines.<br>
  * <br>
+ * When memory mapped, each file is read by a {@link MappedLogFileReader} and events are available as
+ * {@link LogEventSlice} byte ranges through {@link #sliceIterator()}.  The String iterator remains available
+ * in both modes.<br>
+ * <br>
+ * Files may also be read in parallel by a {@link ParallelLogFileParser}, in which case the events of each batch
+ * it delivers are iterated in turn.<br>
+ * <br>
+ * Compressed logs (.gz, and each member of a .zip) are inflated while they're read, see {@link LogSource} and
+ * {@link DecompressingStreamIterator}.  Compressed logs can't be memory mapped or split, so when any are present
+ * they're read through a Reader regardless of the requested mode.<br>
+ * <br>
  * See also: <a href="http://logging.apache.org/log4j/1.2/apidocs/org/apache/log4j/PatternLayout.html">LayoutPattern</a>
  * @author trey.kirk
  * 
@@ -34,7 +48,12 @@ import org.apache.commons.logging.LogFactory;
 public class MultiFileLog4jLineIterator implements Iterable<String> {
 
     private static Log _log = LogFactory.getLog(MultiFileLog4jLineIterator.class);
-    private LineIterator _iterator;
+    private Iterator<String> _iterator;
+    private MappedIterator _mappedIterator;
+    private Log4jPatternConverter _converter;
+    private List<File> _files;
+    private Map<File, List<LogSource>> _sourceMap = new HashMap<File, List<LogSource>>();
+    private LogFileFollower _follower;
 
     /**
      * Standard constructor taking in a file name and layout pattern.  
@@ -49,149 +68,328 @@ public class MultiFileLog4jLineIterator implements Iterable<String> {
         }
         DosFileNameFilter filter = new DosFileNameFilter(filePattern);
         _log.debug(filter);
-        _iterator = new LineIterator(directory, filter, layoutPattern);	
+        _converter = new Log4jPatternConverter(layoutPattern);
+        _files = getFileList(directory, filter);
+        _iterator = new LineIterator(getSources(_files), layoutPattern);	
     }
 
     public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern) throws IOException {
+        this (fileNameList, layoutPattern, false);
+    }
+
+    /**
+     * Constructor taking in a list of file names, directories, or file name filters.
+     * @param fileNameList
+     * @param layoutPattern
+     * @param memoryMapped When true, files are memory mapped and scanned as bytes rather than read through a Reader
+     * @throws IOException
+     */
+    public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern, boolean memoryMapped) throws IOException {
+        this (fileNameList, layoutPattern, memoryMapped, false);
+    }
+
+    /**
+     * Constructor reading the files in parallel
+     * @param fileNameList
+     * @param layoutPattern
+     * @param parallelism Number of threads reading the files
+     * @param ordered When false, events are iterated in the order they're read rather than file order.  See
+     * {@link ParallelLogFileParser#canDeliverUnordered(String, java.util.Collection)}
+     * @throws IOException
+     */
+    public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern, int parallelism, boolean ordered) throws IOException {
         if (layoutPattern == null) {
             throw new NullPointerException ("Layout pattern cannot be null.");
         }
         _log.debug(fileNameList);
-        _iterator = new LineIterator(fileNameList, layoutPattern);
+        _converter = new Log4jPatternConverter(layoutPattern);
+        List<File> files = getFileList(fileNameList);
+        _files = files;
+        if (isAnyCompressed(files)) {
+            _iterator = new LineIterator(getSources(files), layoutPattern);
+        } else {
+            ParallelLogFileParser parser = new ParallelLogFileParser(files, layoutPattern, parallelism,
+                    ParallelLogFileParser.DEFAULT_CHUNK_SIZE, ordered);
+            _iterator = new BatchIterator(parser);
+        }
     }
 
-    /*
-     * Internal iterator. This is the real class.  I suppose I could've made Log4jLineIterator an
-     * implementation of Iterable and Iterator, but this works just as well.
+    /**
+     * Constructor taking in a list of file names, directories, or file name filters.
+     * @param fileNameList
+     * @param layoutPattern
+     * @param memoryMapped When true, files are memory mapped and scanned as bytes rather than read through a Reader
+     * @param interleaved When true, the events of all files are merged in time stamp order by a
+     * {@link MergingLogIterator} instead of reading one file after another.  Uncompressed files are always
+     * memory mapped when interleaved.
+     * @throws IOException
      */
-    private class LineIterator implements Iterator<String> {
+    public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern, boolean memoryMapped, boolean interleaved) throws IOException {
+        if (layoutPattern == null) {
+            throw new NullPointerException ("Layout pattern cannot be null.");
+        }
+        _log.debug(fileNameList);
+        _converter = new Log4jPatternConverter(layoutPattern);
+        List<File> files = getFileList(fileNameList);
+        _files = files;
+        if (interleaved) {
+            _iterator = new MergingLogIterator(getSources(files), layoutPattern);
+        } else if (memoryMapped && !isAnyCompressed(files)) {
+            _mappedIterator = new MappedIterator(files, layoutPattern);
+            _iterator = new SliceStringIterator(_mappedIterator);
+        } else {
+            _iterator = new LineIterator(getSources(files), layoutPattern);
+        }
+    }
 
-        private BufferedReader _reader;
-        private Log4jPatternConverter _converter;
-        private String _currentLine;
-        private String _lastLine;
-        private File _directory;
-        private FilenameFilter _filter;
-        private List<File> _fileList;
-        private Iterator<File> _fileIterator;
-        private File _file;
-        private boolean _trim = true;
+    /**
+     * Constructor resuming from a checkpoint.  Files are memory mapped and each is read from the offset the
+     * checkpoint recorded for it, see {@link Checkpoint#resume(List, Log4jPatternConverter)}.  Read the events
+     * through {@link #sliceIterator()} to know how far each file has been read.  Compressed logs can't be
+     * resumed part way, so they're not allowed.
+     * @param fileNameList
+     * @param layoutPattern
+     * @param checkpoint
+     * @throws IOException
+     */
+    public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern, Checkpoint checkpoint) throws IOException {
+        if (layoutPattern == null) {
+            throw new NullPointerException ("Layout pattern cannot be null.");
+        }
+        _log.debug(fileNameList);
+        _converter = new Log4jPatternConverter(layoutPattern);
+        List<File> files = getFileList(fileNameList);
+        _files = files;
+        for (File file : files) {
+            if (LogSource.isCompressed(file.getName())) {
+                throw new IllegalArgumentException("Compressed logs can't be resumed from a checkpoint: " + file);
+            }
+        }
+        Map<File, Long> offsets = checkpoint.resume(files, _converter);
+        _mappedIterator = new MappedIterator(files, layoutPattern, offsets);
+        _iterator = new SliceStringIterator(_mappedIterator);
+    }
 
-        private LineIterator (File directory, FilenameFilter filenameFilter, String layoutPattern) throws IOException {
-            _converter = new Log4jPatternConverter(layoutPattern);
-            _fileIterator = getFileList(directory, filenameFilter).iterator();
-            getNextReader();
-            getNextLine(null);
+    /**
+     * Constructor following the newest file as it grows.  Files are ordered as usual and all but the last are
+     * read through, then the last is followed by a {@link LogFileFollower} until {@link #close()} is called.
+     * The followed file can't be compressed.
+     * @param fileNameList
+     * @param layoutPattern
+     * @param pollInterval Milliseconds between polls of the followed file when it's idle
+     * @throws IOException
+     */
+    public MultiFileLog4jLineIterator(String[] fileNameList, String layoutPattern, long pollInterval) throws IOException {
+        if (layoutPattern == null) {
+            throw new NullPointerException ("Layout pattern cannot be null.");
         }
+        _log.debug(fileNameList);
+        _converter = new Log4jPatternConverter(layoutPattern);
+        List<File> files = getFileList(fileNameList);
+        _files = files;
+        if (files.isEmpty()) {
+            throw new FileNotFoundException("No log file to follow: " + Arrays.toString(fileNameList));
+        }
+        File followed = files.get(files.size() - 1);
+        if (LogSource.isCompressed(followed.getName())) {
+            throw new IllegalArgumentException("Compressed logs can't be followed: " + followed);
+        }
+        List<File> rotated = files.subList(0, files.size() - 1);
+        Iterator<String> rotatedEvents;
+        if (isAnyCompressed(rotated)) {
+            rotatedEvents = new LineIterator(getSources(rotated), layoutPattern);
+        } else {
+            rotatedEvents = new SliceStringIterator(new MappedIterator(rotated, layoutPattern));
+        }
+        _log.debug("Following: " + followed);
+        _follower = new LogFileFollower(followed, layoutPattern, pollInterval);
+        _iterator = new ChainedIterator(rotatedEvents, _follower);
+    }
 
-        private LineIterator (String[] fileNames, String layoutPattern) throws IOException {
-            _converter = new Log4jPatternConverter(layoutPattern);
-            _fileIterator = getFileList(fileNames).iterator();
-            getNextReader();
-            getNextLine(null);
+    /*
+     * True when compressed files prevent mapping
+     */
+    private boolean isAnyCompressed(List<File> files) {
+        for (File file : files) {
+            if (LogSource.isCompressed(file.getName())) {
+                _log.warn(file + " is compressed, files will be read through a Reader");
+                return true;
+            }
         }
+        return false;
+    }
 
-        private List<File> getFileList(String[] fileNames) throws IOException {
-            _log.debug("Building file list for: " + fileNames);
-            List<File> fileList = new ArrayList<File>();
-            for (String fileName : fileNames) {
-                File f = new File(fileName);
-                if (f.isFile() && f.exists()) {
-                    _log.debug("File: " + f);
-                    // I got a file, add it
-                    fileList.add(f);
-                } else if (f.isDirectory() && f.exists()) {
-                    _log.debug("Directory: " + f);
-                    // I got a directory, add the contents
-                    File[] contents = f.listFiles();
-                    _log.debug("Directory contents: " + contents);
-                    for (File content : contents) {
-                        if (content.isFile()) {
-                            fileList.add(content);
-                        }
+    /*
+     * Returns the logs of the files, in order
+     */
+    private List<LogSource> getSources(List<File> files) {
+        List<LogSource> sources = new ArrayList<LogSource>();
+        for (File file : files) {
+            sources.addAll(_sourceMap.get(file));
+        }
+        return sources;
+    }
+
+    /**
+     * Returns the files being read, in the order they're read
+     * @return
+     */
+    public List<File> getFiles() {
+        return _files;
+    }
+
+    private List<File> getFileList(String[] fileNames) throws IOException {
+        _log.debug("Building file list for: " + fileNames);
+        List<File> fileList = new ArrayList<File>();
+        for (String fileName : fileNames) {
+            File f = new File(fileName);
+            if (f.isFile() && f.exists()) {
+                _log.debug("File: " + f);
+                // I got a file, add it
+                fileList.add(f);
+            } else if (f.isDirectory() && f.exists()) {
+                _log.debug("Directory: " + f);
+                // I got a directory, add the contents
+                File[] contents = f.listFiles();
+                _log.debug("Directory contents: " + contents);
+                for (File content : contents) {
+                    if (content.isFile()) {
+                        fileList.add(content);
                     }
+                }
+            } else {
+                // Didn't get a file, didn't get a directory.  Try a FilenameFilter
+                _log.debug("Filter: " + f);
+                String directoryName = f.getParent();
+                _log.debug("Direcotry: " + directoryName);
+                File directory = null;
+                if (directoryName != null) {
+                    directory = new File(directoryName);
                 } else {
-                    // Didn't get a file, didn't get a directory.  Try a FilenameFilter
-                    _log.debug("Filter: " + f);
-                    String directoryName = f.getParent();
-                    _log.debug("Direcotry: " + directoryName);
-                    File directory = null;
-                    if (directoryName != null) {
-                        directory = new File(directoryName);
-                    } else {
-                        directory = new File(".");
-                    }
-                    FilenameFilter filenameFilter = new DosFileNameFilter(f.getName());
-                    File[] files = directory.listFiles(filenameFilter);
-                    _log.debug("Files from filter: " + files);
-                    if (files != null) {
-                        for (File listFile : files) {
-                            fileList.add(listFile);
-                        }
+                    directory = new File(".");
+                }
+                FilenameFilter filenameFilter = new DosFileNameFilter(f.getName());
+                File[] files = directory.listFiles(filenameFilter);
+                _log.debug("Files from filter: " + files);
+                if (files != null) {
+                    for (File listFile : files) {
+                        fileList.add(listFile);
                     }
                 }
             }
-
-            return orderFiles(fileList);
         }
 
-        /*
-         * This method will first generate a list of files that match the filter.  Secondly, it will read the first
-         * log event of each file and order the files based on log events.
-         */
-        private List<File> getFileList(File directory,
-                FilenameFilter filenameFilter) throws IOException {
-            File[] files = directory.listFiles(filenameFilter);
-            List<File> filteredList = Arrays.asList(files);
+        return orderFiles(fileList);
+    }
 
-            return orderFiles(filteredList);
-        }
+    /*
+     * This method will first generate a list of files that match the filter.  Secondly, it will read the first
+     * log event of each file and order the files based on log events.
+     */
+    private List<File> getFileList(File directory,
+            FilenameFilter filenameFilter) throws IOException {
+        File[] files = directory.listFiles(filenameFilter);
+        List<File> filteredList = Arrays.asList(files);
 
-        private List<File> orderFiles(List<File> files) throws IOException {
-            _log.debug("Ordering file list: " + files);
-            Map<Date, File> fileMap = new HashMap<Date, File>();
-            for (File tryFile : files) {
-                try {
-                    BufferedReader reader = new BufferedReader(new FileReader(tryFile));
-                    boolean found = true;
-                    while (found && reader.ready()) {
-                        Date d = getFirstDate(reader);
-                        _log.debug("File: " + tryFile + " :: " + d);
-                        if (d != null) {
-                            File f = fileMap.get(d);
-                            if (f == null) {
-                                found = false;
-                                fileMap.put(d, tryFile);
-                            }
-                        }
-                    }
+        return orderFiles(filteredList);
+    }
 
+    /*
+     * Orders the files by the time stamp of their first event.  Files sharing a first time stamp keep
+     * the order they were listed in, files without any event go last.  The members of a zip archive are
+     * ordered the same way and the archive is placed by its earliest member.
+     */
+    private List<File> orderFiles(List<File> files) throws IOException {
+        _log.debug("Ordering file list: " + files);
+        final Map<Object, Date> firstDates = new HashMap<Object, Date>();
+        Comparator<Object> byFirstDate = new Comparator<Object>() {
+            public int compare(Object o1, Object o2) {
+                Date d1 = firstDates.get(o1);
+                Date d2 = firstDates.get(o2);
+                if (d1 == null || d2 == null) {
+                    return d1 == null ? (d2 == null ? 0 : 1) : -1;
+                }
+                return d1.compareTo(d2);
+            }
+        };
+        List<File> orderedList = new ArrayList<File>(files.size());
+        for (File tryFile : files) {
+            if (_sourceMap.containsKey(tryFile)) {
+                // listed twice
+                continue;
+            }
+            List<LogSource> sources;
+            try {
+                sources = LogSource.expand(tryFile);
+            } catch (IOException e) {
+                _log.error("Error reading " + tryFile, e);
+                continue;
+            }
+            for (LogSource source : sources) {
+                BufferedReader reader = null;
+                try {
+                    reader = new BufferedReader(new InputStreamReader(source.open()));
+                    Date d = getFirstDate(reader);
+                    _log.debug("File: " + source + " :: " + d);
+                    firstDates.put(source, d);
                 } catch (FileNotFoundException e) {
                     // This shouldn't happen
                     e.printStackTrace();
                     _log.error(e);
+                } finally {
+                    if (reader != null) {
+                        reader.close();
+                    }
                 }
             }
-
-            List<File> orderedList = new ArrayList<File>();
-            Set<Date> orderedSet = new TreeSet<Date>(fileMap.keySet());
-            for (Date d : orderedSet) {
-                orderedList.add(fileMap.get(d));
+            // stable, so ties stay in listed order
+            Collections.sort(sources, byFirstDate);
+            if (!sources.isEmpty()) {
+                firstDates.put(tryFile, firstDates.get(sources.get(0)));
             }
-            _log.debug("Ordered List: " + orderedList);
-            return orderedList;
-
+            _sourceMap.put(tryFile, sources);
+            orderedList.add(tryFile);
         }
-        private Date getFirstDate(BufferedReader reader) throws IOException {
-            while (reader.ready()) {
-                Pattern linePattern = _converter.getLinePattern();
-                String line = reader.readLine();
-                if (linePattern.matcher(line).matches()) {
-                    _converter.setLogEvent(line);
-                    return _converter.parseDate();
-                }
+
+        Collections.sort(orderedList, byFirstDate);
+        _log.debug("Ordered List: " + orderedList);
+        return orderedList;
+
+    }
+
+    private Date getFirstDate(BufferedReader reader) throws IOException {
+        while (reader.ready()) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
             }
-            return null;
+            if (_converter.isEventStart(line)) {
+                _converter.setLogEvent(line);
+                return _converter.parseDate();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Internal iterator. This is the real class.  I suppose I could've made Log4jLineIterator an
+     * implementation of Iterable and Iterator, but this works just as well.
+     */
+    private class LineIterator implements Iterator<String> {
+
+        private BufferedReader _reader;
+        private Log4jPatternConverter _converter;
+        private String _currentLine;
+        private String _lastLine;
+        private DecompressingStreamIterator _fileIterator;
+        private File _file;
+        private boolean _trim = true;
+
+        private LineIterator (List<LogSource> sources, String layoutPattern) throws IOException {
+            _converter = new Log4jPatternConverter(layoutPattern);
+            _fileIterator = new DecompressingStreamIterator(sources);
+            getNextReader();
+            getNextLine(null);
         }
 
         private String ltrim (String text) {
@@ -232,8 +430,7 @@ public class MultiFileLog4jLineIterator implements Iterable<String> {
                 // and only our analyzers care about that
                 boolean matched = false;
                 if (_trim) {
-                    int end = line.length() > 512 ? 512 : line.length();
-                    matched = linePattern.matcher(line.substring(0, end)).matches();
+                    matched = _converter.isEventStart(line);
                 } else {
                     matched = linePattern.matcher(line).matches();
                 }
@@ -260,11 +457,15 @@ public class MultiFileLog4jLineIterator implements Iterable<String> {
             }
         }
 
-        private void getNextReader() throws FileNotFoundException {
+        private void getNextReader() throws IOException {
+            if (_reader != null) {
+                _reader.close();
+            }
             if (_fileIterator.hasNext()) {
-                _file = _fileIterator.next();
-                _log.debug("Next file: " + _file);
-                _reader = new BufferedReader(new FileReader(_file));
+                InputStream in = _fileIterator.next();
+                _file = _fileIterator.getCurrent().getFile();
+                _log.debug("Next file: " + _fileIterator.getCurrent());
+                _reader = new BufferedReader(new InputStreamReader(in));
             } else {
                 _reader = null;
                 _log.debug("No next file");
@@ -294,10 +495,199 @@ public class MultiFileLog4jLineIterator implements Iterable<String> {
 
     }
 
+    /*
+     * Memory mapped iterator.  Chains a MappedLogFileReader for each file in order.  Unlike the
+     * LineIterator, events never continue from one file into the next.
+     */
+    private class MappedIterator implements Iterator<LogEventSlice> {
+
+        private Log4jPatternConverter _converter;
+        private Iterator<File> _fileIterator;
+        private MappedLogFileReader _reader;
+        private Map<File, Long> _offsets;
+
+        private MappedIterator (List<File> files, String layoutPattern) {
+            this (files, layoutPattern, null);
+        }
+
+        /*
+         * Reads each file from its offset, null to read them all from the beginning
+         */
+        private MappedIterator (List<File> files, String layoutPattern, Map<File, Long> offsets) {
+            _converter = new Log4jPatternConverter(layoutPattern);
+            _fileIterator = files.iterator();
+            _offsets = offsets;
+        }
+
+        public boolean hasNext() {
+            try {
+                while (_reader == null || !_reader.hasNext()) {
+                    if (!_fileIterator.hasNext()) {
+                        _log.debug("No next file");
+                        return false;
+                    }
+                    File file = _fileIterator.next();
+                    long start = _offsets == null ? 0 : _offsets.get(file);
+                    _log.debug("Next file: " + file + ", from: " + start);
+                    if (_reader != null) {
+                        _reader.close();
+                    }
+                    _reader = new MappedLogFileReader(file, _converter, start, Long.MAX_VALUE,
+                            MappedLogFileReader.DEFAULT_WINDOW_SIZE, Charset.defaultCharset());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return true;
+        }
+
+        public LogEventSlice next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return _reader.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+     * Decodes the slices of a mapped iterator for the String contract
+     */
+    private static class SliceStringIterator implements Iterator<String> {
+
+        private Iterator<LogEventSlice> _slices;
+
+        private SliceStringIterator(Iterator<LogEventSlice> slices) {
+            _slices = slices;
+        }
+
+        public boolean hasNext() {
+            return _slices.hasNext();
+        }
+
+        public String next() {
+            return _slices.next().toString();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+     * Iterates each event of each batch
+     */
+    private static class BatchIterator implements Iterator<String> {
+
+        private Iterator<List<String>> _batches;
+        private Iterator<String> _batch;
+
+        private BatchIterator(Iterator<List<String>> batches) {
+            _batches = batches;
+        }
+
+        public boolean hasNext() {
+            while (_batch == null || !_batch.hasNext()) {
+                if (!_batches.hasNext()) {
+                    return false;
+                }
+                _batch = _batches.next().iterator();
+            }
+            return true;
+        }
+
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return _batch.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /*
+     * Iterates one iterator then the other.  The LineIterator reads ahead in hasNext(), so next() only
+     * follows what hasNext() decided.
+     */
+    private static class ChainedIterator implements Iterator<String> {
+
+        private Iterator<String> _first;
+        private Iterator<String> _second;
+
+        private ChainedIterator(Iterator<String> first, Iterator<String> second) {
+            _first = first;
+            _second = second;
+        }
+
+        public boolean hasNext() {
+            if (_first != null) {
+                if (_first.hasNext()) {
+                    return true;
+                }
+                _first = null;
+            }
+            return _second.hasNext();
+        }
+
+        public String next() {
+            if (_first != null) {
+                return _first.next();
+            }
+            return _second.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     public Iterator<String> iterator() {
         return _iterator;
     }
 
+    /**
+     * Stops following the last file.  Has no effect unless following.
+     */
+    public void close() {
+        if (_follower != null) {
+            _follower.close();
+        }
+    }
+
+    /**
+     * Returns true when the last file is followed as it grows
+     * @return
+     */
+    public boolean isFollowing() {
+        return _follower != null;
+    }
+
+    /**
+     * Returns the events as byte range slices.  Only available when memory mapped.  This iterator
+     * and {@link #iterator()} share their position.
+     * @return
+     */
+    public Iterator<LogEventSlice> sliceIterator() {
+        if (_mappedIterator == null) {
+            throw new IllegalStateException("Event slices are only available when memory mapped");
+        }
+        return _mappedIterator;
+    }
+
+    /**
+     * Returns true when files are memory mapped
+     * @return
+     */
+    public boolean isMemoryMapped() {
+        return _mappedIterator != null;
+    }
+
     /** Test method 
      * @throws IOException **/
 
@@ -0,0 +1,453 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Tells whether any of a set of regular expressions is found in a text, in a single scan of the text however many
+ * expressions there are.  Expressions that are plain literals, like the names of identities or applications, are
+ * looked for all at once with an Aho-Corasick automaton and the first one found decides.  The other expressions
+ * are only run when the scan found the literal they require, see {@link #getRequiredLiteral(Pattern)}, or when
+ * they have none.<br>
+ * <br>
+ * Instances are immutable once built and may be shared between threads.
+ * @author trey.kirk
+ *
+ */
+public class MultiPatternMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // transitions for characters below this are looked up in a table, the others followed through the failures
+    private static final int TABLE_SIZE = 128;
+
+    // no key ends at the state
+    private static final int[] NO_KEYS = new int[0];
+
+    // transitions of each state for the characters of the table
+    private int[][] _table;
+    // transitions of each state for the other characters, null when there are none
+    private Map<Character, Integer>[] _others;
+    private int[] _failures;
+    // keys ending at each state, including those of its failures
+    private int[][] _keys;
+    // what each key stands for: -1 for a literal expression, otherwise the regular expression requiring it
+    private int[] _keyTargets;
+    // the expression each key or regular expression comes from
+    private int[] _keyPatterns;
+    private int[] _regularExpressionPatterns;
+    private Pattern[] _regularExpressions;
+    // regular expressions requiring no literal, run on every text
+    private int[] _unconditional;
+    private int _patternCount;
+
+    /**
+     * Builds the matcher
+     * @param patterns
+     */
+    public MultiPatternMatcher(Pattern... patterns) {
+        _patternCount = patterns.length;
+        List<String> keys = new ArrayList<String>();
+        List<Integer> keyTargets = new ArrayList<Integer>();
+        List<Integer> keyPatterns = new ArrayList<Integer>();
+        List<Pattern> regularExpressions = new ArrayList<Pattern>();
+        List<Integer> regularExpressionPatterns = new ArrayList<Integer>();
+        List<Integer> unconditional = new ArrayList<Integer>();
+        for (int i = 0; i < patterns.length; i++) {
+            Pattern pattern = patterns[i];
+            String literal = getExactLiteral(pattern);
+            if (literal != null) {
+                keys.add(literal);
+                keyTargets.add(-1);
+                keyPatterns.add(i);
+                continue;
+            }
+            int index = regularExpressions.size();
+            regularExpressions.add(pattern);
+            regularExpressionPatterns.add(i);
+            literal = getRequiredLiteral(pattern);
+            if (literal != null) {
+                keys.add(literal);
+                keyTargets.add(index);
+                keyPatterns.add(i);
+            } else {
+                unconditional.add(index);
+            }
+        }
+        _regularExpressions = regularExpressions.toArray(new Pattern[regularExpressions.size()]);
+        _regularExpressionPatterns = toArray(regularExpressionPatterns);
+        _unconditional = toArray(unconditional);
+        _keyTargets = toArray(keyTargets);
+        _keyPatterns = toArray(keyPatterns);
+        build(keys);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /*
+     * Builds the trie of the keys, then the failures and transitions breadth first
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void build(List<String> keys) {
+        List<Map<Character, Integer>> children = new ArrayList<Map<Character, Integer>>();
+        List<List<Integer>> ends = new ArrayList<List<Integer>>();
+        children.add(new HashMap<Character, Integer>());
+        ends.add(new ArrayList<Integer>());
+        for (int key = 0; key < keys.size(); key++) {
+            String literal = keys.get(key);
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                Integer next = children.get(state).get(literal.charAt(i));
+                if (next == null) {
+                    next = children.size();
+                    children.add(new HashMap<Character, Integer>());
+                    ends.add(new ArrayList<Integer>());
+                    children.get(state).put(literal.charAt(i), next);
+                }
+                state = next;
+            }
+            ends.get(state).add(key);
+        }
+        int states = children.size();
+        _table = new int[states][];
+        _others = new Map[states];
+        _failures = new int[states];
+        _keys = new int[states][];
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int state = queue.removeFirst();
+            int failure = _failures[state];
+            int[] table = new int[TABLE_SIZE];
+            for (int c = 0; c < TABLE_SIZE; c++) {
+                Integer child = children.get(state).get((char)c);
+                // the root's failure is itself, its missing transitions stay at the root
+                table[c] = child != null ? child : (state == 0 ? 0 : _table[failure][c]);
+            }
+            _table[state] = table;
+            for (Map.Entry<Character, Integer> child : children.get(state).entrySet()) {
+                int next = child.getValue();
+                _failures[next] = state == 0 ? 0 : step(failure, child.getKey());
+                queue.add(next);
+                if (child.getKey() >= TABLE_SIZE) {
+                    if (_others[state] == null) {
+                        _others[state] = new HashMap<Character, Integer>();
+                    }
+                    _others[state].put(child.getKey(), next);
+                }
+            }
+            List<Integer> stateKeys = ends.get(state);
+            if (state != 0) {
+                for (int key : _keys[failure]) {
+                    stateKeys.add(key);
+                }
+            }
+            _keys[state] = stateKeys.isEmpty() ? NO_KEYS : toArray(stateKeys);
+        }
+    }
+
+    /*
+     * The state following the character
+     */
+    private int step(int state, char c) {
+        if (c < TABLE_SIZE) {
+            return _table[state][c];
+        }
+        while (true) {
+            Map<Character, Integer> others = _others[state];
+            Integer next = others != null ? others.get(c) : null;
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = _failures[state];
+        }
+    }
+
+    /**
+     * Returns true if any of the expressions is found in the text, as {@link java.util.regex.Matcher#find()} would
+     * @param text
+     * @return
+     */
+    public boolean find(CharSequence text) {
+        // regular expressions whose literal was found, made when one is
+        boolean[] triggered = null;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+            int[] keys = _keys[state];
+            for (int k = 0; k < keys.length; k++) {
+                int target = _keyTargets[keys[k]];
+                if (target < 0) {
+                    return true;
+                }
+                if (triggered == null) {
+                    triggered = new boolean[_regularExpressions.length];
+                }
+                triggered[target] = true;
+            }
+        }
+        for (int index : _unconditional) {
+            if (_regularExpressions[index].matcher(text).find()) {
+                return true;
+            }
+        }
+        for (int index = 0; triggered != null && index < triggered.length; index++) {
+            if (triggered[index] && _regularExpressions[index].matcher(text).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds which of the expressions are found in the text, each as {@link java.util.regex.Matcher#find()} would
+     * @param text
+     * @param found Set to true for each expression found, by the order the expressions were given in.  Those not
+     * found are left as they are.
+     */
+    public void findAll(CharSequence text, boolean[] found) {
+        // regular expressions whose literal was found, made when one is
+        boolean[] triggered = null;
+        int state = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+            int[] keys = _keys[state];
+            for (int k = 0; k < keys.length; k++) {
+                int target = _keyTargets[keys[k]];
+                if (target < 0) {
+                    found[_keyPatterns[keys[k]]] = true;
+                    continue;
+                }
+                if (triggered == null) {
+                    triggered = new boolean[_regularExpressions.length];
+                }
+                triggered[target] = true;
+            }
+        }
+        for (int index : _unconditional) {
+            if (_regularExpressions[index].matcher(text).find()) {
+                found[_regularExpressionPatterns[index]] = true;
+            }
+        }
+        for (int index = 0; triggered != null && index < triggered.length; index++) {
+            if (triggered[index] && _regularExpressions[index].matcher(text).find()) {
+                found[_regularExpressionPatterns[index]] = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of expressions matched
+     * @return
+     */
+    public int size() {
+        return _patternCount;
+    }
+
+    /**
+     * Returns the literal the pattern matches when that's all it matches, otherwise null
+     * @param pattern
+     * @return
+     */
+    static String getExactLiteral(Pattern pattern) {
+        int flags = pattern.flags();
+        String regex = pattern.pattern();
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0 || regex.length() == 0) {
+            return null;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex;
+        }
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                literal.append(regex.charAt(++i));
+            } else if (".^$|?*+()[]{}".indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Returns a literal that any string the pattern matches must contain, or null when none is found.  Only
+     * simple expressions are looked into: anything with alternatives, inline flags, quoting or case insensitivity
+     * has none.  Groups, character classes and whatever is optional are skipped, the longest run of literal
+     * characters left is returned.
+     * @param pattern
+     * @return
+     */
+    static String getRequiredLiteral(Pattern pattern) {
+        int flags = pattern.flags();
+        String regex = pattern.pattern();
+        if ((flags & (Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ)) != 0) {
+            return null;
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            return regex.length() > 0 ? regex : null;
+        }
+        if (regex.indexOf('|') >= 0 || regex.contains("(?") || regex.contains("\\Q")) {
+            return null;
+        }
+        String longest = "";
+        StringBuilder run = new StringBuilder();
+        int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            int end;
+            // the atom's character, when it's a literal
+            int literal = -1;
+            if (c == '\\') {
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    literal = escaped;
+                } else if ("dDsSwWbBAGZzhHvVRXntrfae".indexOf(escaped) < 0) {
+                    // hex, unicode, octal, control, property and back references aren't worth the bother
+                    return null;
+                }
+                end = i + 2;
+            } else if (c == '[') {
+                end = skipClass(regex, i);
+            } else if (c == '(') {
+                end = skipGroup(regex, i);
+            } else if (c == '.' || c == '^' || c == '$') {
+                end = i + 1;
+            } else if (c == ')' || c == '*' || c == '+' || c == '?' || c == '{') {
+                // dangling, the expression is off
+                return null;
+            } else {
+                literal = c;
+                end = i + 1;
+            }
+            if (end < 0) {
+                return null;
+            }
+            boolean optional = false;
+            boolean repeated = false;
+            int next = end;
+            if (next < length) {
+                char quantifier = regex.charAt(next);
+                if (quantifier == '*' || quantifier == '?') {
+                    optional = true;
+                    next++;
+                } else if (quantifier == '+') {
+                    repeated = true;
+                    next++;
+                } else if (quantifier == '{') {
+                    // {0} and {0,n} may leave it out, the others aren't worth telling apart
+                    next = regex.indexOf('}', next) + 1;
+                    if (next == 0) {
+                        return null;
+                    }
+                    optional = true;
+                }
+                if (next > end && next < length && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+                    // reluctant or possessive
+                    next++;
+                }
+            }
+            if (literal >= 0 && !optional) {
+                run.append((char)literal);
+            }
+            if (literal < 0 || optional || repeated) {
+                // what follows isn't next to the run
+                if (run.length() > longest.length()) {
+                    longest = run.toString();
+                }
+                run.setLength(0);
+            }
+            i = next;
+        }
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        return longest.length() > 0 ? longest : null;
+    }
+
+    /*
+     * Returns the index following the character class starting at the index, -1 if it doesn't end
+     */
+    private static int skipClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            // a leading ] is a literal
+            i++;
+        }
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the index following the group starting at the index, -1 if it doesn't end
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return i + 1;
+                }
+            }
+            i++;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,15 @@
+package sailpoint.services.log.api;
+
+/**
+ * Marks a {@link LogAnalyzer} whose summary doesn't depend on the order events are added in.  Such an analyzer
+ * may be handed events as soon as they're parsed, for example by {@link ParallelLogFileParser} when delivering
+ * batches in completion order instead of file order.<br>
+ * <br>
+ * Analyzers relying on {@link AbstractTraceAspectLogAnalyzer#autoCorrectDates} are only order insensitive when
+ * the layout's time stamps are unambiguous, since the correction compares each event to the one before it.
+ * @author trey.kirk
+ *
+ */
+public interface OrderInsensitiveAnalyzer extends LogAnalyzer {
+
+}
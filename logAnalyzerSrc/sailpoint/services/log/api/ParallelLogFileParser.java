@@ -0,0 +1,285 @@
+package sailpoint.services.log.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads log files in parallel.  Each file is split into byte ranges (chunks) and every chunk is read by its own
+ * {@link MappedLogFileReader} on a {@link ForkJoinPool}.  A reader begins with the first event that starts within
+ * its range and reads through the last one, so every split is moved forward to the next event boundary and no
+ * event is read twice or cut in two.<br>
+ * <br>
+ * Each chunk becomes a batch of events.  Batches are delivered in file order by default, which keeps every
+ * analyzer working as if the files were read by a single reader, including the correction of ambiguous time
+ * stamps across chunk seams.  When all analyzers are {@link OrderInsensitiveAnalyzer}s (see
+ * {@link #canDeliverUnordered(String, Collection)}) batches may instead be delivered as soon as they're read.<br>
+ * <br>
+ * Only a limited number of chunks are read ahead of the consumer, keeping memory bounded for very large files.
+ * @author trey.kirk
+ *
+ */
+public class ParallelLogFileParser implements Iterator<List<String>> {
+
+    private static Log _log = LogFactory.getLog(ParallelLogFileParser.class);
+
+    /**
+     * Default number of bytes per chunk
+     */
+    public static final long DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+    // chunks read ahead of the consumer, per thread
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /*
+     * A range of a file
+     */
+    private static class Chunk {
+        private File _file;
+        private long _start;
+        private long _end;
+
+        private Chunk(File file, long start, long end) {
+            _file = file;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        public String toString() {
+            return _file + "[" + _start + ", " + _end + ")";
+        }
+    }
+
+    /*
+     * The events of one chunk, or why they couldn't be read
+     */
+    private static class ChunkResult {
+        private List<String> _events;
+        private RuntimeException _error;
+    }
+
+    /*
+     * Reads one chunk.  When unordered, the result is also queued as soon as it's ready.
+     */
+    private class ChunkTask extends RecursiveTask<ChunkResult> {
+
+        private static final long serialVersionUID = 1L;
+        private Chunk _chunk;
+
+        private ChunkTask(Chunk chunk) {
+            _chunk = chunk;
+        }
+
+        @Override
+        protected ChunkResult compute() {
+            ChunkResult result = new ChunkResult();
+            try {
+                result._events = readChunk(_chunk);
+            } catch (RuntimeException e) {
+                result._error = e;
+            }
+            if (!_ordered) {
+                _completed.add(result);
+            }
+            return result;
+        }
+    }
+
+    private String _layoutPattern;
+    private boolean _ordered;
+    private long _chunkSize;
+    private Charset _charset;
+    private ForkJoinPool _pool;
+    private Iterator<Chunk> _chunks;
+    private int _maxInFlight;
+    private LinkedList<ChunkTask> _inFlight;
+    private LinkedBlockingQueue<ChunkResult> _completed;
+    private int _pending;
+    private List<String> _next;
+
+    /**
+     * Reads the files in file order using one thread per processor
+     * @param files Files in the order they're to be read
+     * @param layoutPattern
+     */
+    public ParallelLogFileParser(List<File> files, String layoutPattern) {
+        this (files, layoutPattern, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE, true);
+    }
+
+    /**
+     * Full constructor
+     * @param files Files in the order they're to be read
+     * @param layoutPattern
+     * @param parallelism Number of threads reading chunks
+     * @param chunkSize Bytes per chunk
+     * @param ordered When false, batches are delivered in the order they finish rather than file order
+     */
+    public ParallelLogFileParser(List<File> files, String layoutPattern, int parallelism, long chunkSize, boolean ordered) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1: " + chunkSize);
+        }
+        _layoutPattern = layoutPattern;
+        _ordered = ordered;
+        _chunkSize = chunkSize;
+        _charset = Charset.defaultCharset();
+        _pool = new ForkJoinPool(parallelism);
+        _maxInFlight = parallelism * CHUNKS_PER_THREAD;
+        _inFlight = new LinkedList<ChunkTask>();
+        _completed = new LinkedBlockingQueue<ChunkResult>();
+        _chunks = split(files).iterator();
+        _log.debug("Reading " + files + " with " + parallelism + " threads, ordered: " + ordered);
+        submitChunks();
+    }
+
+    /**
+     * Returns true when batches for these analyzers can be delivered out of file order: every analyzer is
+     * an {@link OrderInsensitiveAnalyzer} and the layout's time stamps don't need to be corrected.
+     * @param layoutPattern
+     * @param analyzers
+     * @return
+     */
+    public static boolean canDeliverUnordered(String layoutPattern, Collection<? extends LogAnalyzer> analyzers) {
+        if (analyzers.isEmpty()) {
+            return false;
+        }
+        for (LogAnalyzer analyzer : analyzers) {
+            if (!(analyzer instanceof OrderInsensitiveAnalyzer)) {
+                return false;
+            }
+        }
+        return new Log4jPatternConverter(layoutPattern).isDateUnambiguous();
+    }
+
+    /*
+     * Splits each file into chunks.  The last chunk of a file runs to the end of it.
+     */
+    private List<Chunk> split(List<File> files) {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (File file : files) {
+            long length = file.length();
+            long start = 0;
+            while (start + _chunkSize < length) {
+                chunks.add(new Chunk(file, start, start + _chunkSize));
+                start += _chunkSize;
+            }
+            chunks.add(new Chunk(file, start, Long.MAX_VALUE));
+        }
+        _log.debug("Chunks: " + chunks.size());
+        return chunks;
+    }
+
+    private List<String> readChunk(Chunk chunk) {
+        _log.trace("Reading chunk: " + chunk);
+        List<String> events = new ArrayList<String>();
+        // converters aren't thread safe, each chunk gets its own
+        Log4jPatternConverter converter = new Log4jPatternConverter(_layoutPattern);
+        // enough to read the chunk and the event running past its end without remapping
+        long window = Math.min(MappedLogFileReader.DEFAULT_WINDOW_SIZE, _chunkSize * 2);
+        MappedLogFileReader reader = null;
+        try {
+            reader = new MappedLogFileReader(chunk._file, converter, chunk._start, chunk._end, window, _charset);
+            while (reader.hasNext()) {
+                events.add(reader.next().toString());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading " + chunk, e);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        return events;
+    }
+
+    private void submitChunks() {
+        while (_pending < _maxInFlight && _chunks.hasNext()) {
+            ChunkTask task = new ChunkTask(_chunks.next());
+            _pool.execute(task);
+            if (_ordered) {
+                _inFlight.add(task);
+            }
+            _pending++;
+        }
+    }
+
+    /*
+     * Waits for the next batch, null when all chunks have been read
+     */
+    private ChunkResult take() {
+        if (_pending == 0) {
+            return null;
+        }
+        ChunkResult result;
+        if (_ordered) {
+            result = _inFlight.removeFirst().join();
+        } else {
+            try {
+                result = _completed.take();
+            } catch (InterruptedException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+        }
+        _pending--;
+        submitChunks();
+        if (result._error != null) {
+            close();
+            throw result._error;
+        }
+        return result;
+    }
+
+    public boolean hasNext() {
+        while (_next == null) {
+            ChunkResult result = take();
+            if (result == null) {
+                close();
+                return false;
+            }
+            if (!result._events.isEmpty()) {
+                _next = result._events;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next batch of events
+     */
+    public List<String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        List<String> next = _next;
+        _next = null;
+        return next;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops reading.  Chunks being read are abandoned.
+     */
+    public void close() {
+        _pool.shutdownNow();
+    }
+
+}
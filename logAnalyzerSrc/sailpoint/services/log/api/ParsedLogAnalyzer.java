@@ -0,0 +1,23 @@
+package sailpoint.services.log.api;
+
+/**
+ * A {@link LogAnalyzer} that can be handed events already parsed.  When several analyzers look at the same
+ * events, a {@link LogEventPipeline} parses each event once and shares the {@link ParsedLogEvent} with all of
+ * them instead of every analyzer matching the event against the layout pattern on its own.
+ * @author trey.kirk
+ *
+ */
+public interface ParsedLogAnalyzer extends LogAnalyzer {
+
+    /**
+     * The "feeder" method for events already parsed.  Analyzing the event must give the same result as
+     * {@link LogAnalyzer#addLogEvent(String)} would have.
+     * @param logEvent The event as read
+     * @param parsedEvent The event parsed with the analyzer's layout pattern.  When fast parsing, only the start
+     * of the event up to the fast parse limit is parsed, see {@link ParsedLogEvent#isTruncated()}.  The same
+     * instance is handed to every analyzer of the pipeline.
+     * @return boolean - Signals if the event was successfully parsed, same as {@link LogAnalyzer#addLogEvent(String)}
+     */
+    public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent);
+
+}
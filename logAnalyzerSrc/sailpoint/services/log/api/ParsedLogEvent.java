@@ -0,0 +1,246 @@
+package sailpoint.services.log.api;
+
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sailpoint.services.log.api.Log4jPatternConverter.Identifier;
+
+/**
+ * A log event along with the location of each of its tokens, as produced by {@link Log4jPatternConverter#parse(CharSequence)}.
+ * The event itself is never copied: tokens are handed out as {@link Token} views over the raw event and only become
+ * Strings when {@link Token#toString()} is called, after which that String is kept.  Checking the start of a message
+ * or comparing a thread name can therefore be done without creating any String at all.<br>
+ * <br>
+ * The time stamp is parsed when the event is, so an event can be handed to another thread without taking the
+ * (not thread safe) converter with it.  Instances are immutable, save for the Strings cached by their tokens.
+ * @author trey.kirk
+ *
+ */
+public class ParsedLogEvent {
+
+    private static Log _log = LogFactory.getLog(ParsedLogEvent.class);
+
+    /**
+     * View of a single token of the event
+     */
+    public static class Token implements CharSequence {
+
+        private final CharSequence _event;
+        private final int _start;
+        private final int _end;
+        private String _string;
+
+        Token(CharSequence event, int start, int end) {
+            _event = event;
+            _start = start;
+            _end = end;
+        }
+
+        public int length() {
+            return _end - _start;
+        }
+
+        public char charAt(int index) {
+            return _event.charAt(_start + index);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return _event.subSequence(_start + start, _start + end);
+        }
+
+        /**
+         * Returns true if the other is a token of the same characters of the same event
+         * @param other
+         * @return
+         */
+        public boolean isSameView(CharSequence other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Token)) {
+                return false;
+            }
+            Token token = (Token)other;
+            return token._event == _event && token._start == _start && token._end == _end;
+        }
+
+        /**
+         * Returns true if the token begins with the prefix
+         * @param prefix
+         * @return
+         */
+        public boolean startsWith(String prefix) {
+            int length = prefix.length();
+            if (length > _end - _start) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (_event.charAt(_start + i) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns true if the token is exactly the value
+         * @param value
+         * @return
+         */
+        public boolean contentEquals(CharSequence value) {
+            int length = value.length();
+            if (length != _end - _start) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (_event.charAt(_start + i) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            // racy, but every thread would create an equal String
+            String string = _string;
+            if (string == null) {
+                string = _event.subSequence(_start, _end).toString();
+                _string = string;
+            }
+            return string;
+        }
+    }
+
+    private final CharSequence _event;
+    private final int[] _groups;
+    private final int[] _starts;
+    private final int[] _ends;
+    private final boolean _matched;
+    private final boolean _truncated;
+    private final long _time;
+    private final String _layoutPattern;
+    private final Token[] _tokens;
+
+    /**
+     * Created by {@link Log4jPatternConverter#parse(CharSequence)}
+     * @param event The raw event
+     * @param groups Capture group of each identifier, indexed by the identifier character.  Shared, never modified.
+     * @param starts Start of each group.  -1 when the group did not participate in the match.
+     * @param ends End of each group
+     * @param matched False if the event didn't match the layout pattern
+     * @param truncated True if the event is a view of the first part of a longer one
+     * @param time Time stamp or {@link CompiledDateParser#NO_DATE}
+     * @param layoutPattern The layout pattern, used for error reporting
+     */
+    ParsedLogEvent(CharSequence event, int[] groups, int[] starts, int[] ends, boolean matched, boolean truncated, long time, String layoutPattern) {
+        _event = event;
+        _groups = groups;
+        _starts = starts;
+        _ends = ends;
+        _matched = matched;
+        _truncated = truncated;
+        _time = time;
+        _layoutPattern = layoutPattern;
+        _tokens = new Token[starts.length];
+    }
+
+    /**
+     * Returns the raw event, as far as it was parsed
+     * @return
+     */
+    public CharSequence getEvent() {
+        return _event;
+    }
+
+    /**
+     * Returns true if the event matched the layout pattern.  Asking an event that didn't match for a token will
+     * result in a RuntimeException, same as {@link Log4jPatternConverter#parseToken(char)}.
+     * @return
+     */
+    public boolean isMatched() {
+        return _matched;
+    }
+
+    /**
+     * Returns true if the event was parsed up to a limit and is missing its end, see
+     * {@link Log4jPatternConverter#parse(CharSequence, int)}.  The message then ends at the limit.
+     * @return
+     */
+    public boolean isTruncated() {
+        return _truncated;
+    }
+
+    /**
+     * Returns the time stamp in epoch milliseconds
+     * @return The time or {@link CompiledDateParser#NO_DATE}
+     */
+    public long getTime() {
+        return _time;
+    }
+
+    /**
+     * Returns the time stamp as a new Date, or null
+     * @return
+     */
+    public Date getDate() {
+        return _time == CompiledDateParser.NO_DATE ? null : new Date(_time);
+    }
+
+    /**
+     * Returns the token for the identifier
+     * @param identifier
+     * @return
+     */
+    public Token getToken(Identifier identifier) {
+        return getToken(identifier.getIdentifier());
+    }
+
+    /**
+     * Returns a view of the token for the identifier, or null if the layout pattern doesn't define it
+     * @param identifier
+     * @return
+     */
+    public Token getToken(char identifier) {
+        int group = identifier < _groups.length ? _groups[identifier] : -1;
+        if (group < 0) {
+            return null;
+        }
+        if (!_matched) {
+            IllegalStateException e = new IllegalStateException("No match found");
+            _log.error("IllegalStateException when parsing token: " + identifier + ", layoutPatter=" + _layoutPattern +
+                    "\nUsually caused by layoutPattern specifying tokens not actually present in log file!", e);
+            throw new RuntimeException(e);
+        }
+        if (group >= _starts.length || _starts[group] < 0) {
+            return null;
+        }
+        Token token = _tokens[group];
+        if (token == null) {
+            token = new Token(_event, _starts[group], _ends[group]);
+            _tokens[group] = token;
+        }
+        return token;
+    }
+
+    /**
+     * Returns the token for the identifier as a String, or null if the layout pattern doesn't define it
+     * @param identifier
+     * @return
+     */
+    public String getTokenString(char identifier) {
+        Token token = getToken(identifier);
+        return token == null ? null : token.toString();
+    }
+
+    /**
+     * Returns the raw event as a String
+     */
+    @Override
+    public String toString() {
+        return _event.toString();
+    }
+
+}
@@ -0,0 +1,143 @@
+package sailpoint.services.log.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Saves and loads the state of {@link MergeableAnalyzer}s that analyzed a partition of the events, so partitions
+ * analyzed by other JVMs, other machines or earlier runs can be merged into a single summary.<br>
+ * <br>
+ * Partials are written with Java serialization, compressed, behind a short header identifying the format.  Bulky
+ * state, like the durations of a timer or the calls of a trend, is written as primitives.  A partial can only be
+ * loaded by the same version of the analyzers that saved it.
+ * @author trey.kirk
+ *
+ */
+public class PartialAnalysis {
+
+    private static Log _log = LogFactory.getLog(PartialAnalysis.class);
+
+    // "LAPA", followed by the version of the format
+    private static final int MAGIC = 0x4c415041;
+    private static final int VERSION = 1;
+
+    private PartialAnalysis() {
+    }
+
+    /**
+     * Saves the analyzers to the file
+     * @param analyzers
+     * @param file
+     * @throws IOException
+     */
+    public static void save(List<? extends MergeableAnalyzer> analyzers, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            write(analyzers, out);
+        } finally {
+            out.close();
+        }
+        _log.debug("Saved " + analyzers.size() + " partial analyzers to " + file + ", " + file.length() + " bytes");
+    }
+
+    /**
+     * Writes the analyzers to the stream, which is left open
+     * @param analyzers
+     * @param out
+     * @throws IOException
+     */
+    public static void write(List<? extends MergeableAnalyzer> analyzers, OutputStream out) throws IOException {
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.flush();
+        GZIPOutputStream zip = new GZIPOutputStream(out);
+        ObjectOutputStream objects = new ObjectOutputStream(zip);
+        objects.writeInt(analyzers.size());
+        for (MergeableAnalyzer analyzer : analyzers) {
+            objects.writeObject(analyzer);
+        }
+        objects.flush();
+        zip.finish();
+    }
+
+    /**
+     * Loads the analyzers saved to the file
+     * @param file
+     * @return
+     * @throws IOException When the file can't be read or isn't a partial analysis
+     */
+    public static List<MergeableAnalyzer> load(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return read(in);
+        } catch (IOException e) {
+            throw new IOException("Unable to load partial analysis " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads analyzers written by {@link #write(List, OutputStream)}
+     * @param in
+     * @return
+     * @throws IOException When the stream isn't a partial analysis
+     */
+    public static List<MergeableAnalyzer> read(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Not a partial analysis");
+        }
+        int version = header.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported partial analysis version: " + version);
+        }
+        ObjectInputStream objects = new ObjectInputStream(new GZIPInputStream(in));
+        int size = objects.readInt();
+        List<MergeableAnalyzer> analyzers = new ArrayList<MergeableAnalyzer>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                analyzers.add((MergeableAnalyzer)objects.readObject());
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown analyzer", e);
+        } catch (ClassCastException e) {
+            throw new IOException("Not a mergeable analyzer", e);
+        }
+        return analyzers;
+    }
+
+    /**
+     * Merges each partial into the analyzer at the same position
+     * @param analyzers
+     * @param partials Analyzers of the partition following the analyzers', of the same kinds and in the same order
+     * @throws IllegalArgumentException When the partials don't match the analyzers
+     */
+    public static void merge(List<? extends MergeableAnalyzer> analyzers, List<? extends MergeableAnalyzer> partials) {
+        if (analyzers.size() != partials.size()) {
+            throw new IllegalArgumentException("Can't merge " + partials.size() + " partial analyzers into " + analyzers.size());
+        }
+        for (int i = 0; i < analyzers.size(); i++) {
+            analyzers.get(i).merge(partials.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package sailpoint.services.log.api;
+
+/**
+ * A {@link ParsedLogAnalyzer} that can decide on some events from their text alone, before they're parsed.  A
+ * filter looking for a word, for one, knows an event without the word is of no interest without matching it
+ * against the layout pattern.  A {@link LogEventPipeline} asks each such analyzer first and only parses the
+ * events some analyzer still needs parsed, which spares most of the parsing when filtering a large log for a
+ * small part of it.
+ * @author trey.kirk
+ *
+ */
+public interface PrefilteredAnalyzer extends ParsedLogAnalyzer {
+
+    /**
+     * Returns false when the analyzer can add the event with {@link #addUnparsedEvent(String, CharSequence)}.
+     * Must not change the analyzer, it may be called from another thread than the one adding events.
+     * @param message The event as far as it would be parsed, see {@link Log4jPatternConverter#parse(CharSequence, int)}
+     * @return
+     */
+    public boolean needsParse(CharSequence message);
+
+    /**
+     * Adds an event {@link #needsParse(CharSequence)} returned false for.  Analyzing the event must give the same
+     * result as {@link LogAnalyzer#addLogEvent(String)} would have.
+     * @param logEvent The event as read
+     * @param message The event as far as it would be parsed
+     * @return Same as {@link LogAnalyzer#addLogEvent(String)}
+     */
+    public boolean addUnparsedEvent(String logEvent, CharSequence message);
+
+}
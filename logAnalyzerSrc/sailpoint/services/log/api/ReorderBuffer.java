@@ -0,0 +1,181 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Puts events written slightly out of order back into time order, holding only those that may still be preceded
+ * by one yet to come.  Events are kept in a min-heap of their time stamps; once the latest time stamp added is more
+ * than the window past an event's, no event inside the window can come before it and it's released.<br>
+ * <br>
+ * Events with the same time stamp are released in the order they were added.  An event arriving more than the
+ * window late is released right away, out of order, and counted by {@link #getLate()}.
+ * @author trey.kirk
+ *
+ */
+public class ReorderBuffer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long _window;
+    private long[] _times;
+    private long[] _sequences;
+    private String[] _events;
+    private int _size;
+    private long _nextSequence;
+    private long _latest = CompiledDateParser.NO_DATE;
+    private long _released = CompiledDateParser.NO_DATE;
+    private long _late;
+
+    /**
+     * @param window Milliseconds an event may be written after a later one
+     */
+    public ReorderBuffer(long window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Window can't be negative: " + window);
+        }
+        _window = window;
+        _times = new long[INITIAL_CAPACITY];
+        _sequences = new long[INITIAL_CAPACITY];
+        _events = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Adds an event.  Those now ready are taken with {@link #poll()}.
+     * @param time
+     * @param event
+     */
+    public void add(long time, String event) {
+        if (_size == _times.length) {
+            int capacity = _size * 2;
+            _times = Arrays.copyOf(_times, capacity);
+            _sequences = Arrays.copyOf(_sequences, capacity);
+            _events = Arrays.copyOf(_events, capacity);
+        }
+        if (time < _released) {
+            _late++;
+        }
+        if (time > _latest) {
+            _latest = time;
+        }
+        int i = _size++;
+        long sequence = _nextSequence++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(time, sequence, parent)) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, time, sequence, event);
+    }
+
+    /**
+     * Takes the earliest event, if the window has passed it
+     * @return The event, or null when none is ready
+     */
+    public String poll() {
+        if (_size == 0 || _latest == CompiledDateParser.NO_DATE || _times[0] > _latest - _window) {
+            return null;
+        }
+        return remove();
+    }
+
+    /*
+     * Removes the root of the heap
+     */
+    private String remove() {
+        String event = _events[0];
+        if (_times[0] > _released) {
+            _released = _times[0];
+        }
+        int last = --_size;
+        long time = _times[last];
+        long sequence = _sequences[last];
+        String lastEvent = _events[last];
+        _events[last] = null;
+        // sift down
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < _size) {
+            if (child + 1 < _size && before(_times[child + 1], _sequences[child + 1], child)) {
+                child++;
+            }
+            if (!before(_times[child], _sequences[child], time, sequence)) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        if (_size > 0) {
+            set(i, time, sequence, lastEvent);
+        }
+        return event;
+    }
+
+    /**
+     * Returns the events still held, in the order they'd be released, without removing them
+     * @return
+     */
+    public List<String> getHeld() {
+        ReorderBuffer copy = new ReorderBuffer(_window);
+        copy._times = Arrays.copyOf(_times, _size);
+        copy._sequences = Arrays.copyOf(_sequences, _size);
+        copy._events = Arrays.copyOf(_events, _size);
+        copy._size = _size;
+        List<String> held = new ArrayList<String>(_size);
+        while (copy._size > 0) {
+            held.add(copy.remove());
+        }
+        return held;
+    }
+
+    /**
+     * Number of events held
+     * @return
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Number of events added after a later one was released, which were released out of order
+     * @return
+     */
+    public long getLate() {
+        return _late;
+    }
+
+    /**
+     * Latest time stamp added, {@link CompiledDateParser#NO_DATE} when there's none yet
+     * @return
+     */
+    public long getLatest() {
+        return _latest;
+    }
+
+    private boolean before(long time, long sequence, int i) {
+        return before(time, sequence, _times[i], _sequences[i]);
+    }
+
+    private static boolean before(long time, long sequence, long otherTime, long otherSequence) {
+        return time < otherTime || time == otherTime && sequence < otherSequence;
+    }
+
+    private void move(int from, int to) {
+        set(to, _times[from], _sequences[from], _events[from]);
+    }
+
+    private void set(int i, long time, long sequence, String event) {
+        _times[i] = time;
+        _sequences[i] = sequence;
+        _events[i] = event;
+    }
+
+}
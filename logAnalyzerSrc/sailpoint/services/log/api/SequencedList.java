@@ -0,0 +1,118 @@
+package sailpoint.services.log.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A list of items each tagged with the sequence of the event that produced it, in the order they were added.
+ * Analyzers whose summary lists events in the order they were logged keep them in one, so the lists of several
+ * {@link ShardableAnalyzer} shards can be merged back into the order a single analyzer would have produced.
+ * @author trey.kirk
+ *
+ * @param <T>
+ */
+public class SequencedList<T> implements Iterable<T>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<T> _items;
+    private long[] _sequences;
+
+    public SequencedList() {
+        _items = new ArrayList<T>();
+        _sequences = new long[16];
+    }
+
+    /**
+     * Adds an item.  Sequences must be added in increasing order.
+     * @param sequence Sequence of the event the item came from
+     * @param item
+     */
+    public void add(long sequence, T item) {
+        int size = _items.size();
+        if (size == _sequences.length) {
+            _sequences = Arrays.copyOf(_sequences, size * 2);
+        }
+        _sequences[size] = sequence;
+        _items.add(item);
+    }
+
+    /**
+     * Adds every item of the list after this one's, for lists of events that follow this list's events
+     * @param list
+     * @param offset Added to the list's sequences, past the last sequence of this list
+     */
+    public void append(SequencedList<T> list, long offset) {
+        for (int i = 0; i < list.size(); i++) {
+            add(list._sequences[i] + offset, list._items.get(i));
+        }
+    }
+
+    /**
+     * Returns the item at the index
+     * @param index
+     * @return
+     */
+    public T get(int index) {
+        return _items.get(index);
+    }
+
+    /**
+     * Replaces the item at the index, it keeps its sequence
+     * @param index
+     * @param item
+     */
+    public void set(int index, T item) {
+        _items.set(index, item);
+    }
+
+    public int size() {
+        return _items.size();
+    }
+
+    public boolean isEmpty() {
+        return _items.isEmpty();
+    }
+
+    public Iterator<T> iterator() {
+        return _items.iterator();
+    }
+
+    /**
+     * Merges the lists into this one by sequence.  Items with equal sequences keep the order of the lists,
+     * this one first.
+     * @param lists
+     */
+    public void merge(List<SequencedList<T>> lists) {
+        List<SequencedList<T>> all = new ArrayList<SequencedList<T>>();
+        all.add(this);
+        all.addAll(lists);
+        int total = 0;
+        for (SequencedList<T> list : all) {
+            total += list.size();
+        }
+        List<T> items = new ArrayList<T>(total);
+        long[] sequences = new long[Math.max(16, total)];
+        int[] positions = new int[all.size()];
+        for (int merged = 0; merged < total; merged++) {
+            int next = -1;
+            for (int i = 0; i < all.size(); i++) {
+                SequencedList<T> list = all.get(i);
+                if (positions[i] < list.size() && (next < 0 ||
+                        list._sequences[positions[i]] < all.get(next)._sequences[positions[next]])) {
+                    next = i;
+                }
+            }
+            SequencedList<T> list = all.get(next);
+            sequences[merged] = list._sequences[positions[next]];
+            items.add(list._items.get(positions[next]));
+            positions[next]++;
+        }
+        _items = items;
+        _sequences = sequences;
+    }
+
+}
@@ -0,0 +1,43 @@
+package sailpoint.services.log.api;
+
+import java.util.List;
+
+/**
+ * An analyzer whose state is kept separately for each thread (the %t token) of the log.  The events of a log can
+ * then be split by thread among several shards of the analyzer, each analyzing its share on a thread of its own
+ * with no locking, see {@link ThreadedLogEventPipeline#ThreadedLogEventPipeline(String, java.util.Collection, int)}.
+ * Every event of a thread must be handed to the same shard.<br>
+ * <br>
+ * Once every event has been analyzed, the shards are merged into the analyzer they were created from.  Its
+ * summary is then the same, whatever the number of shards, as long as nothing depends on the order of events
+ * logged by different threads: shards don't correct ambiguous time stamps across threads, so sharding is meant
+ * for layouts whose dates are unambiguous with {@link AbstractTraceAspectLogAnalyzer#autoCorrectDates} disabled.
+ * @author trey.kirk
+ *
+ */
+public interface ShardableAnalyzer extends ParsedLogAnalyzer {
+
+    /**
+     * Creates an analyzer configured like this one, with nothing analyzed yet
+     * @return
+     */
+    public ShardableAnalyzer newShard();
+
+    /**
+     * Adds an event along with its position among all events of the log, which shards use to merge events
+     * back into the order they were logged
+     * @param sequence Position of the event among all events, counting from 0
+     * @param logEvent
+     * @param parsedEvent
+     * @return Same as {@link LogAnalyzer#addLogEvent(String)}
+     */
+    public boolean addParsedEvent(long sequence, String logEvent, ParsedLogEvent parsedEvent);
+
+    /**
+     * Merges shards created by {@link #newShard()} into this analyzer.  Called once, after every event has
+     * been analyzed.
+     * @param shards
+     */
+    public void mergeShards(List<? extends ShardableAnalyzer> shards);
+
+}
@@ -0,0 +1,31 @@
+package sailpoint.services.log.api;
+
+import java.io.Writer;
+
+/**
+ * An analyzer whose summary is made of the events it accepts, such as a filter.  Given an output, the analyzer
+ * writes each event there as soon as it's accepted instead of holding every one of them for
+ * {@link LogAnalyzer#compileSummary()}.  Memory use no longer grows with the log and output begins with the first
+ * accepted event.<br>
+ * <br>
+ * Once the output is set, {@link LogAnalyzer#compileSummary()} only returns what hasn't been written yet.  Writes
+ * of a single event are done as one, so analyzers running on several threads may share an output.  Errors writing
+ * are thrown as RuntimeExceptions.
+ * @author trey.kirk
+ *
+ */
+public interface StreamingAnalyzer extends LogAnalyzer {
+
+    /**
+     * Sets where accepted events are written, null to keep them for the summary again
+     * @param out
+     */
+    public void setOutput(Writer out);
+
+    /**
+     * Returns where accepted events are written, null if they're kept for the summary
+     * @return
+     */
+    public Writer getOutput();
+
+}
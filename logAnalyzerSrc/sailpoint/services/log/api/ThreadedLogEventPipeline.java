@@ -0,0 +1,388 @@
+package sailpoint.services.log.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import sailpoint.services.log.api.Log4jPatternConverter.Identifier;
+
+/**
+ * A {@link LogEventPipeline} whose stages run on threads of their own: the thread adding events only batches
+ * them, a parser thread parses each batch once and every analyzer runs on its own thread.  The stages are
+ * connected by {@link EventRingBuffer}s, so a slow analyzer no longer holds up reading, parsing or the other
+ * analyzers until it's a full ring of batches behind.  Each analyzer still sees every event in the order it was
+ * added.<br>
+ * <br>
+ * An analyzer signaling it's done is seen by {@link #addLogEvent(String)} a few events later, the reader stops
+ * adding then.  Analyzers skip every event after the first one an analyzer signaled on, but those already
+ * running ahead of it may have analyzed some of them.  Analyzers that never signal, which is most of them, see
+ * exactly the same events as on a single thread.<br>
+ * <br>
+ * {@link ShardableAnalyzer}s may also be split into shards, each analyzing the events of some of the log's
+ * threads on a thread of its own.  An event goes to the shard picked by the hash of its thread name, every
+ * shard runs a private copy of each shardable analyzer and the copies are merged back into the analyzers
+ * handed in by {@link #close()}.  Logs of many threads, like application servers with hundreds of request
+ * threads, then keep as many cores busy as there are shards.  {@link StreamingAnalyzer}s that have an output are
+ * never sharded.<br>
+ * <br>
+ * Summaries must not be compiled before {@link #close()} returns.
+ * @author trey.kirk
+ *
+ */
+public class ThreadedLogEventPipeline extends LogEventPipeline {
+
+    private static Log _log = LogFactory.getLog(ThreadedLogEventPipeline.class);
+
+    /**
+     * Events per batch handed from one stage to the next
+     */
+    public static final int BATCH_SIZE = 256;
+
+    // batches each ring holds
+    private static final int RING_BATCHES = 32;
+
+    /*
+     * Events as added and, once the parser is done with them, as parsed
+     */
+    private static class EventBatch {
+        private long _first;
+        private String[] _events;
+        private ParsedLogEvent[] _parsed;
+        // shard of each event, when sharding
+        private int[] _shards;
+        private int _size;
+
+        private EventBatch(long first) {
+            _first = first;
+            _events = new String[BATCH_SIZE];
+        }
+    }
+
+    /*
+     * Parses each batch and hands it to the analyzers
+     */
+    private class Parser implements Runnable {
+        public void run() {
+            try {
+                EventBatch batch;
+                while ((batch = _readRing.take(0)) != null) {
+                    batch._parsed = new ParsedLogEvent[batch._size];
+                    if (_shardCount > 1) {
+                        batch._shards = new int[batch._size];
+                    }
+                    for (int i = 0; i < batch._size; i++) {
+                        // left null when no analyzer needs it
+                        if (isParseNeeded(bound(batch._events[i]))) {
+                            batch._parsed[i] = parse(batch._events[i]);
+                        }
+                        if (batch._shards != null) {
+                            batch._shards[i] = getShard(batch._parsed[i]);
+                        }
+                    }
+                    if (!_eventRing.publish(batch)) {
+                        return;
+                    }
+                }
+                _eventRing.close();
+            } catch (InterruptedException e) {
+                _log.debug("Parser interrupted");
+                failed(new RuntimeException(e));
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+    }
+
+    /*
+     * Feeds one analyzer, or one shard of each shardable analyzer
+     */
+    private class Consumer implements Runnable {
+        private int _index;
+        private ParsedLogAnalyzer _analyzer;
+        private int _shard = -1;
+        private List<ShardableAnalyzer> _shardAnalyzers;
+
+        private Consumer(int index, ParsedLogAnalyzer analyzer) {
+            _index = index;
+            _analyzer = analyzer;
+        }
+
+        private Consumer(int index, int shard, List<ShardableAnalyzer> shardAnalyzers) {
+            _index = index;
+            _shard = shard;
+            _shardAnalyzers = shardAnalyzers;
+        }
+
+        public void run() {
+            try {
+                EventBatch batch;
+                while ((batch = _eventRing.take(_index)) != null) {
+                    for (int i = 0; i < batch._size; i++) {
+                        long sequence = batch._first + i;
+                        if (sequence > _stopSequence) {
+                            // keep taking, or the parser would wait on us
+                            break;
+                        }
+                        if (_shard < 0) {
+                            if (!addEvent(_analyzer, batch._events[i], batch._parsed[i])) {
+                                stop(sequence, batch._events[i]);
+                            }
+                        } else if (batch._shards[i] == _shard) {
+                            for (ShardableAnalyzer analyzer : _shardAnalyzers) {
+                                if (!analyzer.addParsedEvent(sequence, batch._events[i], batch._parsed[i])) {
+                                    stop(sequence, batch._events[i]);
+                                }
+                            }
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                _log.debug("Consumer " + _index + " interrupted");
+                failed(new RuntimeException(e));
+            } catch (RuntimeException e) {
+                failed(e);
+            }
+        }
+    }
+
+    private EventRingBuffer<EventBatch> _readRing;
+    private EventRingBuffer<EventBatch> _eventRing;
+    private List<Thread> _threads;
+    private int _shardCount;
+    // the analyzers of each shard, shard 0 being the analyzers handed in
+    private List<List<ShardableAnalyzer>> _shards;
+    private EventBatch _batch;
+    private long _sequence;
+    private volatile long _stopSequence = Long.MAX_VALUE;
+    private String _stopEvent;
+    private volatile RuntimeException _error;
+    private boolean _closed;
+
+    /**
+     * Creates the pipeline and starts its threads, every analyzer running on a thread of its own
+     * @param layoutPattern
+     * @param analyzers At least one.  Analyzers can't be added once the threads are started.
+     */
+    public ThreadedLogEventPipeline(String layoutPattern, Collection<? extends LogAnalyzer> analyzers) {
+        this (layoutPattern, analyzers, 1);
+    }
+
+    /**
+     * Creates the pipeline and starts its threads.  {@link ShardableAnalyzer}s are split into shards, the
+     * others run on a thread of their own.
+     * @param layoutPattern
+     * @param analyzers At least one.  Analyzers can't be added once the threads are started.
+     * @param shards Number of shards, 1 to run each shardable analyzer on a single thread like the others
+     */
+    public ThreadedLogEventPipeline(String layoutPattern, Collection<? extends LogAnalyzer> analyzers, int shards) {
+        super(layoutPattern, analyzers);
+        List<ParsedLogAnalyzer> analyzerList = getAnalyzers();
+        if (analyzerList.isEmpty()) {
+            throw new IllegalArgumentException("No analyzers to run");
+        }
+        if (shards < 1) {
+            throw new IllegalArgumentException("Shards must be at least 1: " + shards);
+        }
+        List<ParsedLogAnalyzer> unsharded = new ArrayList<ParsedLogAnalyzer>();
+        List<ShardableAnalyzer> shardable = new ArrayList<ShardableAnalyzer>();
+        for (ParsedLogAnalyzer analyzer : analyzerList) {
+            if (shards > 1 && analyzer instanceof ShardableAnalyzer && !isStreaming(analyzer)) {
+                shardable.add((ShardableAnalyzer)analyzer);
+            } else {
+                unsharded.add(analyzer);
+            }
+        }
+        _shardCount = shardable.isEmpty() ? 1 : shards;
+        _shards = new ArrayList<List<ShardableAnalyzer>>();
+        if (!shardable.isEmpty()) {
+            _shards.add(shardable);
+            for (int i = 1; i < _shardCount; i++) {
+                List<ShardableAnalyzer> shard = new ArrayList<ShardableAnalyzer>();
+                for (ShardableAnalyzer analyzer : shardable) {
+                    shard.add(analyzer.newShard());
+                }
+                _shards.add(shard);
+            }
+            _log.debug("Analyzing " + shardable + " in " + _shardCount + " shards");
+        }
+        _readRing = new EventRingBuffer<EventBatch>(RING_BATCHES, 1);
+        _eventRing = new EventRingBuffer<EventBatch>(RING_BATCHES, unsharded.size() + _shards.size());
+        _threads = new ArrayList<Thread>();
+        startThread(new Parser(), "LogParser");
+        int index = 0;
+        for (ParsedLogAnalyzer analyzer : unsharded) {
+            startThread(new Consumer(index, analyzer), "LogAnalyzer-" + index + "-" + analyzer.getClass().getSimpleName());
+            index++;
+        }
+        for (int i = 0; i < _shards.size(); i++) {
+            startThread(new Consumer(index, i, _shards.get(i)), "LogAnalyzerShard-" + i);
+            index++;
+        }
+        _batch = new EventBatch(0);
+    }
+
+    /*
+     * Analyzers writing as they go aren't sharded, their shards would write events out of order
+     */
+    private static boolean isStreaming(LogAnalyzer analyzer) {
+        return analyzer instanceof StreamingAnalyzer && ((StreamingAnalyzer)analyzer).getOutput() != null;
+    }
+
+    /*
+     * Adds the event, unparsed when no analyzer needed it parsed
+     */
+    private boolean addEvent(ParsedLogAnalyzer analyzer, String logEvent, ParsedLogEvent parsedEvent) {
+        if (parsedEvent == null) {
+            return ((PrefilteredAnalyzer)analyzer).addUnparsedEvent(logEvent, bound(logEvent));
+        }
+        return analyzer.addParsedEvent(logEvent, parsedEvent);
+    }
+
+    /*
+     * Picks the event's shard by its thread name.  Events that didn't parse have no thread and all go to the first.
+     */
+    private int getShard(ParsedLogEvent parsedEvent) {
+        if (parsedEvent == null || !parsedEvent.isMatched()) {
+            return 0;
+        }
+        ParsedLogEvent.Token thread = parsedEvent.getToken(Identifier.THREAD);
+        if (thread == null) {
+            return 0;
+        }
+        int hash = 0;
+        for (int i = 0; i < thread.length(); i++) {
+            hash = 31 * hash + thread.charAt(i);
+        }
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % _shardCount;
+    }
+
+    /**
+     * Not supported, every analyzer is handed to the constructor
+     */
+    @Override
+    public void addAnalyzer(LogAnalyzer analyzer) {
+        if (_threads != null) {
+            throw new UnsupportedOperationException("Analyzers can't be added once the pipeline is started");
+        }
+        super.addAnalyzer(analyzer);
+    }
+
+    private void startThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        _threads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Adds the event to the current batch, handing the batch to the parser once it's full
+     * @return false once an analyzer has signaled it's done
+     */
+    @Override
+    public boolean addLogEvent(String logEvent) {
+        checkError();
+        if (_closed) {
+            throw new IllegalStateException("Pipeline is closed");
+        }
+        _batch._events[_batch._size++] = logEvent;
+        _sequence++;
+        if (_batch._size == BATCH_SIZE) {
+            publish();
+            _batch = new EventBatch(_sequence);
+        }
+        return _stopSequence == Long.MAX_VALUE;
+    }
+
+    private void publish() {
+        try {
+            _readRing.publish(_batch);
+        } catch (InterruptedException e) {
+            failed(new RuntimeException(e));
+        }
+        checkError();
+    }
+
+    private synchronized void stop(long sequence, String logEvent) {
+        if (sequence < _stopSequence) {
+            _stopSequence = sequence;
+            _stopEvent = logEvent;
+        }
+    }
+
+    /**
+     * Returns the earliest event an analyzer signaled it's done on, null if none has
+     */
+    @Override
+    public synchronized String getStopEvent() {
+        return _stopEvent;
+    }
+
+    /*
+     * Stops every stage, the first error is the one reported
+     */
+    private void failed(RuntimeException e) {
+        synchronized (this) {
+            if (_error != null) {
+                return;
+            }
+            _error = e;
+        }
+        _log.debug("Error analyzing events, stopping", e);
+        _readRing.abort();
+        _eventRing.abort();
+    }
+
+    private void checkError() {
+        RuntimeException error = _error;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Hands over the last batch and waits for every analyzer to finish
+     */
+    @Override
+    public void close() {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        if (_batch._size > 0) {
+            publish();
+        }
+        _readRing.close();
+        try {
+            for (Thread thread : _threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            failed(new RuntimeException(e));
+            Thread.currentThread().interrupt();
+        }
+        checkError();
+        mergeShards();
+    }
+
+    /*
+     * Merges each analyzer's shards into the analyzer handed in
+     */
+    private void mergeShards() {
+        if (_shards.size() < 2) {
+            return;
+        }
+        List<ShardableAnalyzer> analyzers = _shards.get(0);
+        for (int i = 0; i < analyzers.size(); i++) {
+            List<ShardableAnalyzer> shards = new ArrayList<ShardableAnalyzer>();
+            for (int shard = 1; shard < _shards.size(); shard++) {
+                shards.add(_shards.get(shard).get(i));
+            }
+            analyzers.get(i).mergeShards(shards);
+        }
+    }
+
+}
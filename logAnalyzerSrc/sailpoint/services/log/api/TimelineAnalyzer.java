@@ -1,12 +1,13 @@
 package sailpoint.services.log.api;
 
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * Initial purpose for this class is to take the incoming log events
@@ -24,44 +25,106 @@ import java.util.TreeSet;
 2016-04-07 10:50:23,134 TRACE http-8080-3 sailpoint.web.BaseBean:118 - Entering getContext()
 2016-04-07 10:50:23,135  WARN http-8080-7 sailpoint.api.SailPointFactory:124 - contexts.get: sailpoint.server.InternalContext@24c4187c
  
- * which shows a completely different (and ideally more accurate) picture of events
+ * which shows a completely different (and ideally more accurate) picture of events.<br>
+ * <br>
+ * By default the whole log is held until the summary.  Given a reorder window, only events written within that
+ * many milliseconds of the latest one are held, in a {@link ReorderBuffer}, and the rest are released in time
+ * order as the log is read.  Memory then depends on the window rather than the log, and released events can be
+ * streamed to an output.  Events without a time stamp keep the place of the event before them.
  * @author trey.kirk
  *
  */
-public class TimelineAnalyzer extends AbstractTraceAspectLogAnalyzer {
+public class TimelineAnalyzer extends AbstractTraceAspectLogAnalyzer implements StreamingAnalyzer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Log _log = LogFactory.getLog(TimelineAnalyzer.class);
 
-    private Map<String, List<String>> _timeLineMap;
+    private Map<Long, List<String>> _timeLineMap;
+    private ReorderBuffer _reorder;
+    private List<String> _released;
+    private transient Writer _output;
 
     public TimelineAnalyzer(String layoutPattern) {
+        this(layoutPattern, -1);
+    }
+
+    /**
+     * @param layoutPattern
+     * @param reorderWindow Milliseconds an event may be written after a later one, or less than 0 to hold the
+     * whole log
+     */
+    public TimelineAnalyzer(String layoutPattern, long reorderWindow) {
         super(layoutPattern);
-        _timeLineMap = new HashMap<String, List<String>>();
+        if (reorderWindow < 0) {
+            _timeLineMap = new TreeMap<Long, List<String>>();
+        } else {
+            _reorder = new ReorderBuffer(reorderWindow);
+            _released = new ArrayList<String>();
+        }
         setAdjustDate(false);
     }
 
     @Override
     public boolean addLogEvent(String logEvent) {
         super.addLogEvent(logEvent);
-        Date date = getDate();
-        long time = date.getTime();
-        String key = time + "";
-        List<String> currentEvents = _timeLineMap.get(key);
+        long time = getTime();
+        if (_reorder != null) {
+            addReordered(time, logEvent);
+            return true;
+        }
+        List<String> currentEvents = _timeLineMap.get(time);
         if (currentEvents == null) {
             currentEvents = new ArrayList<String>();
-            _timeLineMap.put(key, currentEvents);
+            _timeLineMap.put(time, currentEvents);
         }
         currentEvents.add(logEvent);
         return true;
     }
 
+    /*
+     * Adds the event to the window and releases those it's passed
+     */
+    private void addReordered(long time, String logEvent) {
+        if (time == CompiledDateParser.NO_DATE) {
+            time = _reorder.getLatest();
+        }
+        long late = _reorder.getLate();
+        _reorder.add(time, logEvent);
+        if (_reorder.getLate() > late && _log.isDebugEnabled()) {
+            _log.debug("Event written later than the reorder window, released out of order: " + logEvent);
+        }
+        String released;
+        while ((released = _reorder.poll()) != null) {
+            if (_output != null) {
+                writeEvent(_output, released);
+            } else {
+                _released.add(released);
+            }
+        }
+    }
+
+    public void setOutput(Writer out) {
+        _output = out;
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
     @Override
     public String compileSummary() {
-        Set<String> sortedKeys = new TreeSet<String>();
-        for (String date : _timeLineMap.keySet()) {
-            sortedKeys.add(date);
-        }
         StringBuilder buff = new StringBuilder();
-        for (String date : sortedKeys) {
-            List<String> events = _timeLineMap.get(date);
+        if (_reorder != null) {
+            for (String event : _released) {
+                buff.append(event).append("\n");
+            }
+            for (String event : _reorder.getHeld()) {
+                buff.append(event).append("\n");
+            }
+            return buff.toString();
+        }
+        for (List<String> events : _timeLineMap.values()) {
             for (String event : events) {
                 buff.append(event).append("\n");
             }
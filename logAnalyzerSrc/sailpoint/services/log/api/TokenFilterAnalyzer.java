@@ -1,9 +1,14 @@
 package sailpoint.services.log.api;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,22 +17,101 @@ import org.apache.commons.logging.LogFactory;
 
 import com.biliruben.util.OptionLegend;
 
+/**
+ * Filters events on the value of their tokens, see {@link #addTokenFilter(Character, Pattern)}.<br>
+ * <br>
+ * Filters are planned before any event is seen: each regular expression is searched for a literal that any
+ * value it matches must contain, like "web.certification" in ".*web\.certification.*".  The literals of all
+ * filters are looked for in a single scan, see {@link MultiPatternMatcher}.  An event containing none of them
+ * can't match, so it's decided on from its text alone and never parsed.  The others are
+ * parsed and the regular expressions whose literal they contain run on cheap tokens, like the priority, before
+ * costly ones, like the message.  An event is scanned for the literals once: what the prefilter found is
+ * what the regular expressions run on.
+ * @author trey.kirk
+ *
+ */
+public class TokenFilterAnalyzer extends FastLogAnalyzer implements StreamingAnalyzer, MergeableAnalyzer, PrefilteredAnalyzer {
 
-public class TokenFilterAnalyzer extends FastLogAnalyzer {
+    private static final long serialVersionUID = 1L;
+
+    private static Log _log = LogFactory.getLog(TokenFilterAnalyzer.class);
+
+    /*
+     * A token filter as planned: its token, regular expression and the literal any match contains
+     */
+    private static class PlannedFilter implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private char _token;
+        private Pattern _pattern;
+        // null when none could be found
+        private String _literal;
+
+        private PlannedFilter(char token, Pattern pattern) {
+            _token = token;
+            _pattern = pattern;
+            _literal = MultiPatternMatcher.getRequiredLiteral(pattern);
+        }
+
+        /*
+         * Tokens are checked from the cheapest to the costliest: the priority is a word, the message may
+         * be the better part of the event
+         */
+        private int getCost() {
+            switch (_token) {
+            case 'p':
+                return 0;
+            case 'm':
+                return 2;
+            default:
+                return 1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return _token + "=" + _pattern + (_literal != null ? " [" + _literal + "]" : "");
+        }
+    }
+
+    /*
+     * The last scan for the literals, kept by thread as events may be prefiltered on another thread than
+     * the one adding them
+     */
+    private static class Scan {
+
+        // the event scanned, as far as it's parsed
+        private CharSequence _event;
+        // the filters of the plan whose literal the event contains
+        private boolean[] _found;
+    }
 
-    private Log _log = LogFactory.getLog(TokenFilterAnalyzer.class);
     private boolean _exclusive;
-    private Map<Character, List<Pattern>> _tokenFilters;
+    // the token filters, cheapest first
+    private List<PlannedFilter> _plan;
+    // true when every filter has a literal, so events without any can't match
+    private boolean _prefilter;
+    // the literal of each filter of the plan, an empty one for those without
+    private MultiPatternMatcher _literals;
     private List<String> _events;
     private Log4jPatternConverter _converter;
+    private transient Writer _output;
+    private transient ThreadLocal<Scan> _scans;
     
 
     public TokenFilterAnalyzer(boolean exclusive, String layoutPattern) {
         super();
         _exclusive = exclusive;
-        _tokenFilters = new HashMap<Character, List<Pattern>>();
+        _plan = new ArrayList<PlannedFilter>();
         _events = new ArrayList<String>();
         _converter = new Log4jPatternConverter(layoutPattern);
+        _scans = new ThreadLocal<Scan>();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _scans = new ThreadLocal<Scan>();
     }
    
     /**
@@ -42,38 +126,172 @@ public class TokenFilterAnalyzer extends FastLogAnalyzer {
      */
     public void addTokenFilter (Character token, Pattern filter) {
         _log.debug("addTokenFilter: token=" + token + " filter=" + filter);
-        List<Pattern> patterns = _tokenFilters.get(token);
-        if (patterns == null) {
-            patterns = new ArrayList<Pattern>();
-            _tokenFilters.put(token, patterns);   
+        plan(new PlannedFilter(token, filter));
+    }
+
+    /*
+     * Adds the filter to the plan, after those of cheaper or equally costly tokens
+     */
+    private void plan(PlannedFilter filter) {
+        List<PlannedFilter> plan = new ArrayList<PlannedFilter>(_plan);
+        plan.add(filter);
+        Collections.sort(plan, new Comparator<PlannedFilter>() {
+            public int compare(PlannedFilter f1, PlannedFilter f2) {
+                return f1.getCost() - f2.getCost();
+            }
+        });
+        boolean prefilter = true;
+        Pattern[] literals = new Pattern[plan.size()];
+        for (int i = 0; i < plan.size(); i++) {
+            PlannedFilter planned = plan.get(i);
+            prefilter = prefilter && planned._literal != null;
+            literals[i] = Pattern.compile(planned._literal != null ? planned._literal : "", Pattern.LITERAL);
+        }
+        _log.debug("Filter plan: " + plan + (prefilter ? ", prefiltered" : ""));
+        _plan = plan;
+        _prefilter = prefilter;
+        _literals = new MultiPatternMatcher(literals);
+    }
+
+    public boolean addLogEvent(String logEvent) {
+        CharSequence message = boundedEvent(logEvent);
+        if (!needsParse(message)) {
+            return addUnparsedEvent(logEvent, message);
+        }
+        return addParsedEvent(logEvent, parse(_converter, logEvent));
+    }
+
+    /**
+     * Returns false when the event contains none of the filters' literals, so none of them can match.  What was
+     * found is kept for this thread, the event's filters are decided on without scanning it again.
+     */
+    public boolean needsParse(CharSequence message) {
+        if (!_prefilter) {
+            return true;
+        }
+        boolean[] found = scan(message);
+        for (int i = 0; i < found.length; i++) {
+            if (found[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Returns the filters whose literal the event contains, all literals looked for in one scan.  The event
+     * last scanned on this thread isn't scanned again.  The array returned is reused by the next scan.
+     */
+    private boolean[] scan(CharSequence event) {
+        Scan scan = _scans.get();
+        if (scan == null || scan._found.length != _plan.size()) {
+            scan = new Scan();
+            scan._found = new boolean[_plan.size()];
+            _scans.set(scan);
+        } else if (isScanned(scan._event, event)) {
+            return scan._found;
+        } else {
+            Arrays.fill(scan._found, false);
         }
-        patterns.add(filter);
+        _literals.findAll(event, scan._found);
+        scan._event = event;
+        return scan._found;
     }
 
-    public boolean addLogEvent(String message) {
-        message = trimmedMessage(message);
-        _converter.setLogEvent(message); // There's some activity here that I should really pull up to the parent.
+    /*
+     * Returns true if the event was scanned: the same event, or the same view of one when bounded
+     */
+    private static boolean isScanned(CharSequence scanned, CharSequence event) {
+        if (scanned == event) {
+            return true;
+        }
+        return scanned instanceof ParsedLogEvent.Token && ((ParsedLogEvent.Token)scanned).isSameView(event);
+    }
+
+    /**
+     * Adds an event none of the filters match.  It's kept when the filters are exclusive.
+     */
+    public boolean addUnparsedEvent(String logEvent, CharSequence message) {
+        if (_exclusive) {
+            keep(message.toString());
+        }
+        return true;
+    }
+
+    /**
+     * Filters on the tokens of the parse handed in.  The parsed event is what's kept, as with
+     * {@link #addLogEvent(String)} that's the event up to the character limit when fast parsing.
+     */
+    @Override
+    public boolean addParsedEvent(String logEvent, ParsedLogEvent parsedEvent) {
         boolean matched = false;
-        for (Character token : _tokenFilters.keySet()) {
-            String value = _converter.parseToken(token);
-            List<Pattern> patterns = _tokenFilters.get(token);
-            for (Pattern p : patterns) {
-                Matcher m = p.matcher(value);
-                // if exclusive, all matches must be false
-                // if inclusive, one match must be true
-                // in both cases, we're 'OR'ing the filters
-                matched = m.matches();  // reduce regex ops
-                if (matched) {
-                    break;
-                }
+        boolean[] found = scan(parsedEvent.getEvent());
+        for (int i = 0; i < _plan.size(); i++) {
+            PlannedFilter filter = _plan.get(i);
+            if (!found[i]) {
+                // can't match
+                continue;
             }
+            String value = parsedEvent.getTokenString(filter._token);
+            Matcher m = filter._pattern.matcher(value);
+            // if exclusive, all matches must be false
+            // if inclusive, one match must be true
+            // in both cases, we're 'OR'ing the filters
+            matched = m.matches();  // reduce regex ops
             if (matched) {
                 break;
             }
         }
         if (matched ^ _exclusive) {
+            keep(parsedEvent.toString());
+        }
+        return true;
+    }
+
+    private void keep(String message) {
+        if (_output != null) {
+            writeEvent(_output, message);
+        } else {
             _events.add(message);
         }
+    }
+
+    public void setOutput(Writer out) {
+        _output = out;
+    }
+
+    public Writer getOutput() {
+        return _output;
+    }
+
+    /**
+     * Adds the events the partial kept after this filter's
+     * @throws IllegalArgumentException When the partial filters other tokens or with other patterns, or is
+     * exclusive where this filter isn't or the other way around
+     */
+    public void merge(MergeableAnalyzer partial) {
+        TokenFilterAnalyzer filter = checkPartial(partial);
+        if (filter._exclusive != _exclusive || !samePlan(filter._plan)) {
+            throw new IllegalArgumentException("Can't merge a filter " + (filter._exclusive ? "excluding " : "including ") + filter._plan
+                    + " into one " + (_exclusive ? "excluding " : "including ") + _plan);
+        }
+        _events.addAll(filter._events);
+    }
+
+    /*
+     * Patterns don't implement equals, filters are the same when their tokens, expressions and flags are
+     */
+    private boolean samePlan(List<PlannedFilter> plan) {
+        if (plan.size() != _plan.size()) {
+            return false;
+        }
+        for (int i = 0; i < plan.size(); i++) {
+            PlannedFilter f1 = plan.get(i);
+            PlannedFilter f2 = _plan.get(i);
+            if (f1._token != f2._token || !f1._pattern.pattern().equals(f2._pattern.pattern()) || f1._pattern.flags() != f2._pattern.flags()) {
+                return false;
+            }
+        }
         return true;
     }
 
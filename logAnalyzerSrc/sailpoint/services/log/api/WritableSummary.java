@@ -0,0 +1,21 @@
+package sailpoint.services.log.api;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An analyzer whose summary can be written out a bit at a time rather than built as one String.  Summaries that
+ * hold every event of a log, like a merge of several logs, may be larger than the memory available.
+ * @author trey.kirk
+ *
+ */
+public interface WritableSummary extends LogAnalyzer {
+
+    /**
+     * Writes what {@link LogAnalyzer#compileSummary()} would have returned
+     * @param out
+     * @throws IOException
+     */
+    public void writeSummary(Writer out) throws IOException;
+
+}
@@ -1,15 +1,22 @@
 package sailpoint.services.tools;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
@@ -17,10 +24,17 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
 
 import sailpoint.services.log.api.AbstractTraceAspectLogAnalyzer;
+import sailpoint.services.log.api.CallTreeAnalyzer;
+import sailpoint.services.log.api.Checkpoint;
+import sailpoint.services.log.api.CollapsedStackAnalyzer;
 import sailpoint.services.log.api.DupeFilterAnalyzer;
 import sailpoint.services.log.api.FastLogAnalyzer;
 import sailpoint.services.log.api.LogAnalyzer;
 import sailpoint.services.log.api.LogErrorSummary;
+import sailpoint.services.log.api.LogEventPipeline;
+import sailpoint.services.log.api.Log4jPatternConverter;
+import sailpoint.services.log.api.LogEventSlice;
+import sailpoint.services.log.api.LogFileFollower;
 import sailpoint.services.log.api.LogFilter;
 import sailpoint.services.log.api.LogFormatter;
 import sailpoint.services.log.api.LogMerger;
@@ -28,10 +42,17 @@ import sailpoint.services.log.api.LogMethodCallSummary;
 import sailpoint.services.log.api.LogTestParse;
 import sailpoint.services.log.api.LogTimer;
 import sailpoint.services.log.api.LogTrender;
+import sailpoint.services.log.api.MergeableAnalyzer;
 import sailpoint.services.log.api.MethodIsolationAnalzyer;
 import sailpoint.services.log.api.MultiFileLog4jLineIterator;
+import sailpoint.services.log.api.ParallelLogFileParser;
+import sailpoint.services.log.api.PartialAnalysis;
+import sailpoint.services.log.api.ShardableAnalyzer;
+import sailpoint.services.log.api.StreamingAnalyzer;
+import sailpoint.services.log.api.ThreadedLogEventPipeline;
 import sailpoint.services.log.api.TimelineAnalyzer;
 import sailpoint.services.log.api.TokenFilterAnalyzer;
+import sailpoint.services.log.api.WritableSummary;
 
 import com.biliruben.util.GetOpts;
 import com.biliruben.util.OptionLegend;
@@ -50,6 +71,9 @@ public class LogAnalyzerApp {
     private static final String OPT_TARGET_METHOD = "method";
     private static final String LOG4J_PROPERTIES = "log4j.properties";
     private static List<FastLogAnalyzer> _analyzers;
+    private static LogEventPipeline _pipeline;
+    private static boolean _doFast;
+    private static int _fastLimit;
     private static String _layoutPattern;
     private static GetOpts _opts;
     private static Long _timeSlice;
@@ -66,6 +90,8 @@ public class LogAnalyzerApp {
     private static final String ANALYZER_TIME = "timeline";
     private static final String ANALYZER_MERGE = "merge";
     private static final String ANALYZER_ISOLATE = "isolate";
+    private static final String ANALYZER_CALL_TREE = "calltree";
+    private static final String ANALYZER_COLLAPSED = "collapsed";
     private static final String[] TYPE_ALLOWED_VALUES = {
         ANALYZER_TIMER,
         ANALYZER_TRENDER,
@@ -78,8 +104,21 @@ public class LogAnalyzerApp {
         ANALYZER_TIME,
         ANALYZER_DUPE,
         ANALYZER_MERGE,
-        ANALYZER_ISOLATE
+        ANALYZER_ISOLATE,
+        ANALYZER_CALL_TREE,
+        ANALYZER_COLLAPSED
     };
+    private static final String WEIGHT_SELF = "self";
+    private static final String WEIGHT_CALLS = "calls";
+    private static final String FORMAT_CSV = "csv";
+    private static final String FORMAT_JSON = "json";
+    private static final String VALUE_CALLS = "calls";
+    private static final String VALUE_AVERAGE = "average";
+    private static final String VALUE_P50 = "p50";
+    private static final String VALUE_P90 = "p90";
+    private static final String VALUE_P99 = "p99";
+    private static final String VALUE_P999 = "p99.9";
+    private static final String VALUE_MAX = "max";
 
     // Command line arguments
     private static final String OPT_FILE = "file";
@@ -93,21 +132,104 @@ public class LogAnalyzerApp {
     private static final String OPT_FILTERS = "filter";
     private static final boolean DEBUG = false;
     private static final String OPT_FILTER_EXCLUSIVE = "exclude";
+    private static final String OPT_MEMORY_MAP = "memoryMap";
+    private static final String OPT_PARALLEL = "parallel";
+    private static final String OPT_INTERLEAVE = "interleave";
+    private static final String OPT_FOLLOW = "follow";
+    private static final String OPT_SUMMARY_INTERVAL = "summaryInterval";
+    private static final String OPT_CHECKPOINT = "checkpoint";
+    private static final String OPT_CHECKPOINT_INTERVAL = "checkpointInterval";
+    private static final String OPT_THREADED = "threaded";
+    private static final String OPT_SHARDS = "shards";
+    private static final String OPT_STREAM = "stream";
+    private static final String OPT_SAVE_PARTIAL = "savePartial";
+    private static final String OPT_MERGE_PARTIALS = "mergePartials";
+    private static final String OPT_MERGE_MEMORY = "mergeMemory";
+    private static final String OPT_REORDER_WINDOW = "reorderWindow";
+    private static final String OPT_STACK_WEIGHT = "stackWeight";
+    private static final String OPT_TREND_FORMAT = "trendFormat";
+    private static final String OPT_TREND_VALUE = "trendValue";
+    private static final String OPT_TREND_ROLLUP = "trendRollup";
 
     private static Log _log;
     private static List<String> _fileList;
     private static boolean _join = false;
+    private static boolean _memoryMap = false;
+    private static int _parallel = 1;
+    private static boolean _interleave = false;
+    private static boolean _follow = false;
+    private static long _summaryInterval;
     private static PrintStream _out;
+    // guards the analyzers and output when following, as summaries are output by a timer
+    private static final Object _lock = new Object();
+    private static boolean _summarized = false;
+    private static File _checkpointFile;
+    private static long _checkpointInterval;
+    private static Checkpoint _checkpoint;
+    private static boolean _threaded = false;
+    private static int _shards = 1;
+    private static boolean _stream = false;
+    private static File _savePartial;
+    private static List<File> _mergePartials;
 
     /*
-     * Adds the next log event to each analzyer
+     * Hands what streaming analyzers write to the output
+     */
+    private static class OutputWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            _out.print(new String(cbuf, off, len));
+        }
+
+        @Override
+        public void write(String str) {
+            _out.print(str);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            _out.print(str.substring(off, off + len));
+        }
+
+        @Override
+        public void write(int c) {
+            _out.print((char)c);
+        }
+
+        @Override
+        public void flush() {
+            _out.flush();
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    /*
+     * Adds the next log event to each analzyer, parsing it once for all of them
      */
     private static boolean analyze(String nextLine) {
-        boolean cont = true;
-        for (LogAnalyzer analyzer : _analyzers) {
-            cont = analyzer.addLogEvent(nextLine) && cont;
+        if (_pipeline == null) {
+            // the analyzers are set by now, resuming a checkpoint may have replaced them
+            if (_stream) {
+                Writer writer = new OutputWriter();
+                for (FastLogAnalyzer analyzer : _analyzers) {
+                    if (analyzer instanceof StreamingAnalyzer) {
+                        ((StreamingAnalyzer)analyzer).setOutput(writer);
+                    }
+                }
+            }
+            if (_threaded && !_analyzers.isEmpty()) {
+                _pipeline = new ThreadedLogEventPipeline(_layoutPattern, _analyzers, _shards);
+            } else {
+                _pipeline = new LogEventPipeline(_layoutPattern, _analyzers);
+            }
+            _pipeline.setDoFast(_doFast);
+            _pipeline.setFastParseCharacterLimit(_fastLimit);
         }
-        return cont;
+        return _pipeline.addLogEvent(nextLine);
     }
 
     private static void setFilters(TokenFilterAnalyzer analzyer) {
@@ -151,8 +273,45 @@ public class LogAnalyzerApp {
                 // currently only one type is supported
                 LogTimer analyzer = new LogTimer(_layoutPattern);
                 _analyzers.add(analyzer);		
+            } else if (type.equals(ANALYZER_CALL_TREE)) {
+                CallTreeAnalyzer callTree = new CallTreeAnalyzer(_layoutPattern);
+                _analyzers.add(callTree);
+            } else if (type.equals(ANALYZER_COLLAPSED)) {
+                CollapsedStackAnalyzer.Weight weight = WEIGHT_CALLS.equals(_opts.getStr(OPT_STACK_WEIGHT)) ?
+                        CollapsedStackAnalyzer.Weight.CALLS : CollapsedStackAnalyzer.Weight.SELF_TIME;
+                CollapsedStackAnalyzer collapsed = new CollapsedStackAnalyzer(_layoutPattern, weight);
+                _analyzers.add(collapsed);
             } else if (type.equals(ANALYZER_TRENDER)) {
                 LogTrender trender = new LogTrender(_layoutPattern, _timeSlice);
+                if (FORMAT_JSON.equals(_opts.getStr(OPT_TREND_FORMAT))) {
+                    trender.setFormat(LogTrender.Format.JSON);
+                }
+                String trendValue = _opts.getStr(OPT_TREND_VALUE);
+                if (VALUE_AVERAGE.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.AVERAGE);
+                } else if (VALUE_P50.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.P50);
+                } else if (VALUE_P90.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.P90);
+                } else if (VALUE_P99.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.P99);
+                } else if (VALUE_P999.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.P999);
+                } else if (VALUE_MAX.equals(trendValue)) {
+                    trender.setValue(LogTrender.Value.MAX);
+                }
+                List<String> rollups = _opts.getList(OPT_TREND_ROLLUP);
+                if (rollups != null) {
+                    long[] rollupSlices = new long[rollups.size()];
+                    for (int i = 0; i < rollupSlices.length; i++) {
+                        rollupSlices[i] = Long.valueOf(rollups.get(i));
+                    }
+                    try {
+                        trender.setRollups(rollupSlices);
+                    } catch (IllegalArgumentException e) {
+                        throw new OptionParseException(e.getMessage(), _opts, true);
+                    }
+                }
                 _analyzers.add(trender);
             } else if (type.equals(ANALYZER_ERROR)) {
                 LogErrorSummary errorSummary = new LogErrorSummary(_layoutPattern);
@@ -183,10 +342,24 @@ public class LogAnalyzerApp {
                 DupeFilterAnalyzer dupeAnalyzer = new DupeFilterAnalyzer(_layoutPattern);
                 _analyzers.add(dupeAnalyzer);
             } else if (type.equals(ANALYZER_TIME)) {
-                TimelineAnalyzer timelineAnalyzer = new TimelineAnalyzer(_layoutPattern);
+                String reorderWindow = _opts.getStr(OPT_REORDER_WINDOW);
+                TimelineAnalyzer timelineAnalyzer;
+                if (reorderWindow == null) {
+                    timelineAnalyzer = new TimelineAnalyzer(_layoutPattern);
+                } else {
+                    long window = Long.valueOf(reorderWindow);
+                    if (window < 0) {
+                        throw new OptionParseException(OPT_REORDER_WINDOW + " can't be negative", _opts, true);
+                    }
+                    timelineAnalyzer = new TimelineAnalyzer(_layoutPattern, window);
+                }
                 _analyzers.add(timelineAnalyzer);
             } else if (type.equals(ANALYZER_MERGE)) {
-                LogMerger  merger = new LogMerger(_layoutPattern);
+                long mergeMemory = Long.valueOf(_opts.getStr(OPT_MERGE_MEMORY));
+                if (mergeMemory < 1) {
+                    throw new OptionParseException(OPT_MERGE_MEMORY + " must be at least 1 MB", _opts, true);
+                }
+                LogMerger  merger = new LogMerger(_layoutPattern, mergeMemory * 1024 * 1024, null);
                 _analyzers.add(merger);
             } else if (type.equals(ANALYZER_ISOLATE)) {
                 String className = _opts.getStr(OPT_TAREGET_CLASS);
@@ -199,12 +372,12 @@ public class LogAnalyzerApp {
             }
         }
 
-        boolean doFast = Boolean.valueOf(_opts.getStr(OPT_FAST_PARSE));
-        if (doFast) {
-            int limit = Integer.valueOf(_opts.getStr(OPT_FAST_PARSE_LIMIT));
+        _doFast = Boolean.valueOf(_opts.getStr(OPT_FAST_PARSE));
+        _fastLimit = Integer.valueOf(_opts.getStr(OPT_FAST_PARSE_LIMIT));
+        if (_doFast) {
             for (FastLogAnalyzer analyzer : _analyzers) {
-                analyzer.setDoFast(doFast);
-                analyzer.setFastParseCharacterLimit(limit);
+                analyzer.setDoFast(_doFast);
+                analyzer.setFastParseCharacterLimit(_fastLimit);
             }
         }
 
@@ -214,15 +387,101 @@ public class LogAnalyzerApp {
         if (output == null) {
             _out = System.out;
         } else {
-            _out = new PrintStream(output);
+            _out = new PrintStream(new BufferedOutputStream(new FileOutputStream(output)));
         }
 
+        _memoryMap = Boolean.valueOf(_opts.getStr(OPT_MEMORY_MAP));
+        _parallel = Integer.valueOf(_opts.getStr(OPT_PARALLEL));
+        _interleave = Boolean.valueOf(_opts.getStr(OPT_INTERLEAVE));
+        _follow = Boolean.valueOf(_opts.getStr(OPT_FOLLOW));
+        _summaryInterval = Long.valueOf(_opts.getStr(OPT_SUMMARY_INTERVAL)) * 1000;
+        if (_summaryInterval < 1) {
+            throw new OptionParseException(OPT_SUMMARY_INTERVAL + " must be at least 1 second", _opts, true);
+        }
+        _stream = Boolean.valueOf(_opts.getStr(OPT_STREAM));
+        _threaded = Boolean.valueOf(_opts.getStr(OPT_THREADED));
+        _shards = Integer.valueOf(_opts.getStr(OPT_SHARDS));
+        if (_shards < 1) {
+            throw new OptionParseException(OPT_SHARDS + " must be at least 1", _opts, true);
+        }
+        if (_shards > 1) {
+            initShards();
+        }
+        if (_threaded && _follow) {
+            // summaries would be compiled while the analyzers are still at work
+            throw new OptionParseException(OPT_THREADED + " and " + OPT_SHARDS + " can't be used with " + OPT_FOLLOW, _opts, true);
+        }
+        String checkpoint = _opts.getStr(OPT_CHECKPOINT);
+        if (checkpoint != null) {
+            // streamed events written before the checkpoint would be lost from the output when resuming
+            if (_follow || _interleave || _threaded || _stream) {
+                throw new OptionParseException(OPT_CHECKPOINT + " can't be used with " + OPT_FOLLOW + ", " + OPT_INTERLEAVE + ", " + OPT_THREADED + ", " + OPT_SHARDS + " or " + OPT_STREAM, _opts, true);
+            }
+            _checkpointFile = new File(checkpoint);
+            _checkpointInterval = Long.valueOf(_opts.getStr(OPT_CHECKPOINT_INTERVAL)) * 1000;
+        }
+
+        initPartials();
+
         _fileList = _opts.getList (OPT_FILE);
+        if (_fileList == null) {
+            if (_mergePartials.isEmpty()) {
+                throw new OptionParseException(OPT_FILE + " is required unless merging " + OPT_MERGE_PARTIALS, _opts, true);
+            }
+            _fileList = new ArrayList<String>();
+        }
         //String[] crap = {"C:\\cu_data\\SocGen\\5490 - Performance aCrappy\\30minutes\\sailpoint-UAT01-SCHILLER.log*"};
         //_fileList = Arrays.asList(crap);
         _log.debug("fileName: " + _fileList);
     }
 
+    /*
+     * Partials are the analyzers themselves, so every one of them must be mergeable.  Streamed events aren't
+     * kept by the analyzers and a followed log never ends, so neither can be saved.
+     */
+    private static void initPartials() {
+        String savePartial = _opts.getStr(OPT_SAVE_PARTIAL);
+        List<String> mergePartials = _opts.getList(OPT_MERGE_PARTIALS);
+        _mergePartials = new ArrayList<File>();
+        if (savePartial == null && mergePartials == null) {
+            return;
+        }
+        for (FastLogAnalyzer analyzer : _analyzers) {
+            if (!(analyzer instanceof MergeableAnalyzer)) {
+                throw new OptionParseException(analyzer.getClass().getSimpleName() + " can't be merged, only " + ANALYZER_TIMER + ", " + ANALYZER_CALL_TREE + ", " + ANALYZER_COLLAPSED + ", " + ANALYZER_TRENDER + ", " + ANALYZER_ERROR + ", " + ANALYZER_FILTER + " and " + ANALYZER_DUPE + " can be used with " + OPT_SAVE_PARTIAL + " or " + OPT_MERGE_PARTIALS, _opts, true);
+            }
+        }
+        if (_follow || _stream) {
+            throw new OptionParseException(OPT_SAVE_PARTIAL + " and " + OPT_MERGE_PARTIALS + " can't be used with " + OPT_FOLLOW + " or " + OPT_STREAM, _opts, true);
+        }
+        if (savePartial != null) {
+            _savePartial = new File(savePartial);
+        }
+        if (mergePartials != null) {
+            for (String partial : mergePartials) {
+                _mergePartials.add(new File(partial));
+            }
+        }
+    }
+
+    /*
+     * Shards run on threads of their own.  Each only sees some of the log's threads, so ambiguous time stamps
+     * can't be corrected and the shards would disagree with a single analyzer.
+     */
+    private static void initShards() {
+        _threaded = true;
+        if (!new Log4jPatternConverter(_layoutPattern).isDateUnambiguous()) {
+            _log.warn("The layout's dates are ambiguous, analyzers won't be sharded");
+            _shards = 1;
+            return;
+        }
+        for (FastLogAnalyzer analyzer : _analyzers) {
+            if (analyzer instanceof ShardableAnalyzer && analyzer instanceof AbstractTraceAspectLogAnalyzer) {
+                ((AbstractTraceAspectLogAnalyzer)analyzer).setAdjustDate(false);
+            }
+        }
+    }
+
     private static void getOptions(String[] args) {
         // Parse options
         _log.debug("Parsing commandline options from: " + Arrays.toString(args));
@@ -236,7 +495,8 @@ public class LogAnalyzerApp {
         _opts.setPropertiesDefaultFileName("analyzeLog.properties");
 
         OptionLegend legend = new OptionLegend(OPT_FILE);
-        legend.setRequired(true);
+        // not when only merging partials
+        legend.setRequired(false);
         legend.setMulti(true);
         legend.setDescription("Log4j log to parse.  This may be individual file names or a filename filter (like \"*.log\").  Do note that when using wildcards, the string must be quoted");
         _opts.addLegend(legend);
@@ -291,7 +551,7 @@ public class LogAnalyzerApp {
         legend.setRequired(false);
         legend.setIsHidden(true);
         legend.setFlag(true);
-        legend.setDescription("When set to true, a character limit is applied to log events to reduce cycle time during pattern matching");
+        legend.setDescription("When set to true, a character limit is applied to log events to reduce cycle time during pattern matching.  The tokens leading each event are parsed as usual and its message ends at the limit");
         _opts.addLegend(legend);
 
         // for 'fast parse' mode, set the character limit
@@ -315,6 +575,120 @@ public class LogAnalyzerApp {
         legend.setDescription("When enabled, filters supplied are exclusion filters instead of inclusion filters");
         _opts.addLegend(legend);
 
+        legend = new OptionLegend(OPT_MEMORY_MAP);
+        legend.setFlag(true);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDescription("When enabled, log files are memory mapped and scanned as bytes instead of read line by line");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_PARALLEL);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDefaultValue("1");
+        legend.setDescription("Number of threads reading log files.  When more than one, each file is split into chunks that are memory mapped and read concurrently");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_INTERLEAVE);
+        legend.setFlag(true);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDescription("When enabled, events of all files are interleaved in time stamp order instead of reading one file after another.  Use with " + ANALYZER_JOINER + " to merge large logs");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_FOLLOW);
+        legend.setFlag(true);
+        legend.setRequired(false);
+        legend.setDescription("When enabled, the newest log file is followed as it grows and summaries are output every " + OPT_SUMMARY_INTERVAL + " seconds until the tool is stopped");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_SUMMARY_INTERVAL);
+        legend.setRequired(false);
+        legend.setDefaultValue("60");
+        legend.setDescription("Seconds between summaries when following a log");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_THREADED);
+        legend.setFlag(true);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDescription("When enabled, events are parsed on a thread of their own and each analyzer runs on its own thread");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_SHARDS);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDefaultValue("1");
+        legend.setDescription("Number of shards analyzers keeping state per thread (" + ANALYZER_TIMER + ", " + ANALYZER_CALL_TREE + ", " + ANALYZER_COLLAPSED + ", " + ANALYZER_ERROR + ", " + ANALYZER_METHOD + ", " + ANALYZER_FORMATTER + ", " + ANALYZER_ISOLATE + ") are split into, each analyzing some of the log's threads on a thread of its own.  Implies " + OPT_THREADED);
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_STREAM);
+        legend.setFlag(true);
+        legend.setRequired(false);
+        legend.setDescription("When enabled, analyzers whose output is the events they accept (" + ANALYZER_FILTER + ", " + ANALYZER_DUPE + ", " + ANALYZER_FORMATTER + ", " + ANALYZER_ISOLATE + ", " + ANALYZER_METHOD + ", " + ANALYZER_TIME + " with " + OPT_REORDER_WINDOW + ") write each one as it's accepted instead of holding them all for the summary.  Output begins right away and memory use doesn't grow with the log");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_SAVE_PARTIAL);
+        legend.setRequired(false);
+        legend.setDescription("Partial analysis file.  Instead of outputting summaries, the analyzers are saved to it so they can be merged with those of other logs or other parts of a log using " + OPT_MERGE_PARTIALS);
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_MERGE_PARTIALS);
+        legend.setRequired(false);
+        legend.setMulti(true);
+        legend.setDescription("Partial analysis files saved by " + OPT_SAVE_PARTIAL + " with the same analyzers, merged in the order given after the logs read, if any");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_REORDER_WINDOW);
+        legend.setRequired(false);
+        legend.setDescription("Milliseconds events may be written out of order for " + ANALYZER_TIME + ".  Only events within the window of the latest are held and the rest are output in order as the log is read, streamed with " + OPT_STREAM + ".  Without it, the whole log is held until the end");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_STACK_WEIGHT);
+        legend.setRequired(false);
+        legend.setAllowedValues(new String[] {WEIGHT_SELF, WEIGHT_CALLS});
+        legend.setDefaultValue(WEIGHT_SELF);
+        legend.setDescription("What the stacks output by " + ANALYZER_COLLAPSED + " are weighed by: the milliseconds spent in the last method itself, or the calls made to it");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_TREND_FORMAT);
+        legend.setRequired(false);
+        legend.setAllowedValues(new String[] {FORMAT_CSV, FORMAT_JSON});
+        legend.setDefaultValue(FORMAT_CSV);
+        legend.setDescription("Format of the matrix of calls per method and " + OPT_TREND_SEGMENT + " output by " + ANALYZER_TRENDER);
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_TREND_VALUE);
+        legend.setRequired(false);
+        legend.setAllowedValues(new String[] {VALUE_CALLS, VALUE_AVERAGE, VALUE_P50, VALUE_P90, VALUE_P99, VALUE_P999, VALUE_MAX});
+        legend.setDefaultValue(VALUE_CALLS);
+        legend.setDescription("What " + ANALYZER_TRENDER + " reports for each method and " + OPT_TREND_SEGMENT + ": the calls exiting in it, or the average, a percentile or the longest duration in milliseconds of the calls timed in it");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_TREND_ROLLUP);
+        legend.setRequired(false);
+        legend.setMulti(true);
+        legend.setDescription("Coarser increment, in milliseconds, " + ANALYZER_TRENDER + " also outputs the trend at, rolled up from the " + OPT_TREND_SEGMENT + " counted.  Must be a multiple of " + OPT_TREND_SEGMENT);
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_MERGE_MEMORY);
+        legend.setRequired(false);
+        legend.setIsHidden(true);
+        legend.setDefaultValue(String.valueOf(LogMerger.DEFAULT_MEMORY_BUDGET / 1024 / 1024));
+        legend.setDescription("Megabytes of events " + ANALYZER_MERGE + " holds in memory.  Past it, events are sorted and spilled to temporary files that are merged back together for the output");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_CHECKPOINT);
+        legend.setRequired(false);
+        legend.setDescription("Checkpoint file.  Progress and analyzer state are saved to it every " + OPT_CHECKPOINT_INTERVAL + " seconds and when done.  When it exists, analysis resumes from it and only reads what's been written since");
+        _opts.addLegend(legend);
+
+        legend = new OptionLegend(OPT_CHECKPOINT_INTERVAL);
+        legend.setRequired(false);
+        legend.setDefaultValue("300");
+        legend.setDescription("Seconds between checkpoints");
+        _opts.addLegend(legend);
+
 
         _opts.setDescriptionTail("\nAnalyzer types supported are:" +
                 "\n\ttimer: Provides call timing for each method logged." +
@@ -328,6 +702,8 @@ public class LogAnalyzerApp {
                 "\n\t" + ANALYZER_TEST + ": Tests event parsing." +
                 "\n\t" + ANALYZER_MERGE + ": Merges multiple files. " +
                 "\n\t" + ANALYZER_ISOLATE + ": Isolates log events to only those within the call stack of the provided method." +
+                "\n\t" + ANALYZER_CALL_TREE + ": Aggregates method calls by call path, with the time spent in each call and in the method itself." +
+                "\n\t" + ANALYZER_COLLAPSED + ": Outputs the call paths as collapsed stacks for flamegraph.pl or speedscope." +
                 "\n\tfilter: Filters the log events");
         _opts.parseOpts(args);
 
@@ -382,22 +758,210 @@ public class LogAnalyzerApp {
      */
     public static void main(String[] args) throws IOException {
         init(args);
+        if (_fileList.isEmpty()) {
+            // only merging partials
+            complete();
+            return;
+        }
 
         String[] fileNameList = _fileList.toArray(new String[_fileList.size()]);
-        MultiFileLog4jLineIterator it =  new MultiFileLog4jLineIterator (fileNameList, _layoutPattern);
+        MultiFileLog4jLineIterator it = null;
+        if (_checkpointFile != null) {
+            resumeCheckpoint();
+            it = new MultiFileLog4jLineIterator (fileNameList, _layoutPattern, _checkpoint);
+            analyzeWithCheckpoints(it);
+            complete();
+            return;
+        } else if (_follow) {
+            it = new MultiFileLog4jLineIterator (fileNameList, _layoutPattern, LogFileFollower.DEFAULT_POLL_INTERVAL);
+            startSummaries(it);
+        } else if (_interleave) {
+            it = new MultiFileLog4jLineIterator (fileNameList, _layoutPattern, _memoryMap, true);
+        } else if (_parallel > 1) {
+            // joined output is always in file order
+            boolean ordered = _join || !ParallelLogFileParser.canDeliverUnordered(_layoutPattern, _analyzers);
+            if (!ordered) {
+                // time stamps are unambiguous, nothing to correct and no order to correct them in
+                for (FastLogAnalyzer analyzer : _analyzers) {
+                    if (analyzer instanceof AbstractTraceAspectLogAnalyzer) {
+                        ((AbstractTraceAspectLogAnalyzer)analyzer).setAdjustDate(false);
+                    }
+                }
+            }
+            it = new MultiFileLog4jLineIterator (fileNameList, _layoutPattern, _parallel, ordered);
+        } else {
+            it = new MultiFileLog4jLineIterator (fileNameList, _layoutPattern, _memoryMap);
+        }
         for (String logEvent : it) {
-            _log.trace("Analyzing: " + logEvent);
+            if (!process(logEvent)) {
+                break;
+            }
+        }
+        it.close();
+
+        // done reading
+        complete();
+    }
+
+    /*
+     * Ends the analysis and merges the partials, then outputs the summaries or saves the partial analysis
+     */
+    @SuppressWarnings("unchecked")
+    private static void complete() throws IOException {
+        endAnalysis();
+        // checked to be mergeable by initPartials
+        List<MergeableAnalyzer> analyzers = (List<MergeableAnalyzer>)(List<?>)_analyzers;
+        for (File partial : _mergePartials) {
+            _log.debug("Merging partial analysis " + partial);
+            PartialAnalysis.merge(analyzers, PartialAnalysis.load(partial));
+        }
+        if (_savePartial != null) {
+            PartialAnalysis.save(analyzers, _savePartial);
+            _out.flush();
+        } else {
+            finish();
+        }
+    }
+
+    /*
+     * Analyzes one event, false when the analyzers are done
+     */
+    private static boolean process(String logEvent) {
+        _log.trace("Analyzing: " + logEvent);
+        synchronized (_lock) {
             boolean cont = analyze(logEvent);
-            if (_join || !cont) {
+            if (_join) {
                 _out.println (logEvent);
             }
-            if (!cont) {
-                break;
+            return cont;
+        }
+    }
+
+    /*
+     * Waits for the analyzers to finish and outputs the event they stopped on, if they did
+     */
+    private static void endAnalysis() {
+        synchronized (_lock) {
+            if (_pipeline == null) {
+                // nothing read
+                return;
+            }
+            _pipeline.close();
+            String stopEvent = _pipeline.getStopEvent();
+            if (stopEvent != null && !_join) {
+                _out.println (stopEvent);
             }
         }
+    }
 
-        // done reading
-        summarize();
+    /*
+     * Picks up the analyzers of the last checkpoint, if there is one
+     */
+    @SuppressWarnings("unchecked")
+    private static void resumeCheckpoint() throws IOException {
+        _checkpoint = Checkpoint.load(_checkpointFile);
+        if (_checkpoint == null) {
+            _checkpoint = new Checkpoint();
+            return;
+        }
+        List<LogAnalyzer> saved = _checkpoint.getAnalyzers();
+        boolean same = saved.size() == _analyzers.size();
+        for (int i = 0; same && i < saved.size(); i++) {
+            same = saved.get(i).getClass().equals(_analyzers.get(i).getClass());
+        }
+        if (!same) {
+            throw new IllegalStateException("Checkpoint " + _checkpointFile + " was saved by different analyzers: " + saved);
+        }
+        _log.info("Resuming from checkpoint saved " + _checkpoint.getSaved());
+        _analyzers = (List<FastLogAnalyzer>)(List<?>)saved;
+    }
+
+    /*
+     * Reads the events as slices to know how far each file has been read, saving a checkpoint now and then.  The
+     * last event is analyzed after the final checkpoint, as a log still being written may yet add to it.
+     */
+    private static void analyzeWithCheckpoints(MultiFileLog4jLineIterator it) {
+        Iterator<LogEventSlice> slices = it.sliceIterator();
+        long nextCheckpoint = System.currentTimeMillis() + _checkpointInterval;
+        LogEventSlice last = null;
+        while (slices.hasNext()) {
+            LogEventSlice slice = slices.next();
+            if (last != null) {
+                boolean cont = process(last.toString());
+                _checkpoint.setOffset(last.getFile(), last.getNextEventOffset());
+                if (!cont) {
+                    last = null;
+                    break;
+                }
+                if (System.currentTimeMillis() >= nextCheckpoint) {
+                    saveCheckpoint();
+                    nextCheckpoint = System.currentTimeMillis() + _checkpointInterval;
+                }
+            }
+            last = slice;
+        }
+        if (last != null) {
+            _checkpoint.setOffset(last.getFile(), last.getFileOffset());
+        }
+        saveCheckpoint();
+        if (last != null) {
+            process(last.toString());
+        }
+    }
+
+    private static void saveCheckpoint() {
+        _checkpoint.setAnalyzers(_analyzers);
+        try {
+            _checkpoint.save(_checkpointFile);
+        } catch (IOException e) {
+            _log.error("Unable to save checkpoint " + _checkpointFile, e);
+        }
+    }
+
+    /*
+     * Outputs the summaries periodically while following, and a last time when the tool is stopped
+     */
+    private static void startSummaries(final MultiFileLog4jLineIterator it) {
+        Timer timer = new Timer("LogSummary", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                synchronized (_lock) {
+                    if (_summarized) {
+                        return;
+                    }
+                    _out.print("\n--- " + new Date() + " ---\n");
+                    try {
+                        summarize();
+                    } catch (RuntimeException e) {
+                        _log.error("Error summarizing", e);
+                    }
+                    _out.flush();
+                }
+            }
+        }, _summaryInterval, _summaryInterval);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("LogSummaryShutdown") {
+            @Override
+            public void run() {
+                it.close();
+                finish();
+            }
+        });
+    }
+
+    /*
+     * Outputs the final summaries, once
+     */
+    private static void finish() {
+        synchronized (_lock) {
+            if (_summarized) {
+                return;
+            }
+            _summarized = true;
+            summarize();
+            _out.flush();
+        }
     }
 
     /*
@@ -410,7 +974,15 @@ public class LogAnalyzerApp {
                 _out.print("\n");
             }
             first = false;
-            _out.print(analyzer.compileSummary());
+            if (analyzer instanceof WritableSummary) {
+                try {
+                    ((WritableSummary)analyzer).writeSummary(new OutputWriter());
+                } catch (IOException e) {
+                    throw new RuntimeException("Error writing the summary of " + analyzer.getClass().getSimpleName(), e);
+                }
+            } else {
+                _out.print(analyzer.compileSummary());
+            }
         }	
     }
 }